@@ -1,17 +1,20 @@
 package app;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.io.File;
 import java.sql.SQLException;
 import java.util.List;
 
 import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
+import model.ConnectionPool;
 import model.NLParser;
-import model.Node;
+import model.MappingSession;
 import model.NodeInfo;
 import model.NodeMapper;
 import model.ParseTree;
-import model.ParseTree.ParseTreeIterator;
+import model.QueryExecutor;
+import model.QueryExecutor.Cancellation;
+import model.ResultCursor;
 import model.SQLQuery;
 import model.SchemaGraph;
 import ui.UserView;
@@ -22,36 +25,56 @@ import ui.UserView;
  * @author keping
  */
 public class Controller {
-	private Connection connection = null;
+	private static final String DB_URL = "jdbc:postgresql://127.0.0.1:5432/dblp";
+	private static final String DB_USER = "dblpuser";
+	private static final String DB_PASSWORD = "dblpuser";
+	/**
+	 * Number of connections, also the number of columns sampled at the same time.
+	 */
+	private static final int POOL_SIZE = 4;
+	/**
+	 * Timeout of each sampling query in seconds.
+	 */
+	private static final int SAMPLE_TIMEOUT = 60;
+	/**
+	 * Timeout of each translated query in seconds.
+	 */
+	private static final int QUERY_TIMEOUT = 30;
+	private static final int FETCH_SIZE = 100;
+	/**
+	 * Maximum number of rows displayed for a translated query.
+	 */
+	private static final int MAX_ROWS = 100;
+	private ConnectionPool pool = null;
+	private QueryExecutor executor;
 	private SchemaGraph schema;
 	private NLParser parser;
 	private NodeMapper nodeMapper;
-	private ParseTree parseTree;
 	private UserView view;	
 	/**
-	 * Iterator for nodes mapping.
+	 * Nodes mapping and trees selection of the sentence being processed.
 	 */
-	private ParseTreeIterator iter;
-	/**
-	 * Attribute for nodes mapping, to indicate the current Node.
-	 */
-	private Node node;
+	private MappingSession session;
 	private boolean mappingNodes = false;
 	private boolean selectingTree = false;
 	private boolean processing = false;
-	private List<ParseTree> treeChoices;
 	private SQLQuery query;
+	/**
+	 * Cancels the query whose rows are being read for the display, or null.
+	 */
+	private Cancellation rowsQuery = null;
 	
 	/**
 	 * Initialize the Controller.
 	 */
 	public Controller(UserView view) {
 		this.view = view;
+		NLParser.preload(); // load the parser while connecting
 		startConnection();
 		
 		try { nodeMapper = new NodeMapper();
 		} catch (Exception e) { e.printStackTrace(); }
-		parser     = new NLParser(); // initialize parser, takes some time
+		parser     = NLParser.getInstance(); // waits if the parser is still loading
 		
 		System.out.println("Controller initialized.");
 	}
@@ -73,15 +96,12 @@ public class Controller {
 		
 		System.out.println("PostgreSQL JDBC Driver Registered!");
 
-		try {
-			connection = DriverManager.getConnection("jdbc:postgresql://127.0.0.1:5432/dblp", "dblpuser", "dblpuser");
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
-		System.out.println("Connection successful!");
+		pool = new ConnectionPool(DB_URL, DB_USER, DB_PASSWORD, POOL_SIZE);
+		executor = new QueryExecutor(pool, QUERY_TIMEOUT, FETCH_SIZE);
 		
 		try {
-			schema = new SchemaGraph(connection);
+			schema = new SchemaGraph(pool, new File("schema_dblp.cache"), POOL_SIZE, SAMPLE_TIMEOUT);
+			System.out.println("Connection successful!");
 			view.setDisplay("Database Schema:\n\n"+schema.toString());
 		} catch (SQLException e) {
 			e.printStackTrace();
@@ -93,11 +113,7 @@ public class Controller {
 	 * Close connection with the database.
 	 */
 	public void closeConnection() {
-		try {
-			if (connection != null) { connection.close(); }
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
+		if (pool != null) { pool.close(); }
 		System.out.println("Connection closed.");
 	}
 	
@@ -108,8 +124,8 @@ public class Controller {
 	 * @param choices
 	 */
 	private void setChoicesOnView(List<NodeInfo> choices) {
-		view.setDisplay("Mapping nodes: \n"+parseTree.getSentence()+"\n");
-		view.appendDisplay("Currently on: "+node);
+		view.setDisplay("Mapping nodes: \n"+session.getParseTree().getSentence()+"\n");
+		view.appendDisplay("Currently on: "+session.getNode());
 		view.setChoices(FXCollections.observableArrayList(choices));
 	}
 	
@@ -117,7 +133,7 @@ public class Controller {
 	 * Terminates the mapping Nodes process by setting the boolean mappingNodes false;
 	 */
 	private void finishNodesMapping() {
-		view.setDisplay("Nodes mapped.\n"+parseTree.getSentence());
+		view.setDisplay("Nodes mapped.\n"+session.getParseTree().getSentence());
 		mappingNodes = false;
 		view.removeChoiceBoxButton();
 		processAfterNodesMapping();
@@ -134,38 +150,28 @@ public class Controller {
 		view.showNodesChoice();
 		
 		mappingNodes = true;
-		iter = parseTree.iterator();
-		if (!iter.hasNext()) {
+		if (!session.isMappingNodes()) {
 			finishNodesMapping();
 			return; 
 		}
-		
-		node = iter.next();
-		List<NodeInfo> choices = nodeMapper.getNodeInfoChoices(node, schema);
-		if (choices.size() == 1) { chooseNode(choices.get(0)); }
-		else { setChoicesOnView(choices); }
+		setChoicesOnView(session.getNodeChoices());
 		// After this wait for the button to call chooseNode
 	}
 	
 	/**
 	 * Choose NodeInfo for the current Node. This method is called when the user
-	 * clicked the confirmChoice button, or automatically called when the choices
-	 * of NodeInfo contains only one element. 
+	 * clicked the confirmChoice button. Nodes with only one choice of NodeInfo
+	 * are mapped by the session.
 	 * @param info {@link NodeInfo}
 	 */
 	public void chooseNode(NodeInfo info) {
 		if (!mappingNodes) { return; }
-//		System.out.println("Now the tree is:");
-//		System.out.println(parseTree);
-		node.setInfo(info);
-		if (!iter.hasNext()) {
+		session.chooseNode(info);
+		if (!session.isMappingNodes()) {
 			finishNodesMapping(); 
 			return;
 		}
-		node = iter.next();
-		List<NodeInfo> choices = nodeMapper.getNodeInfoChoices(node, schema);
-		if (choices.size() == 1) { chooseNode(choices.get(0)); }
-		else { setChoicesOnView(choices); }
+		setChoicesOnView(session.getNodeChoices());
 		// After this wait for the button to call chooseNode
 	}
 // ----------------------------------- //
@@ -176,15 +182,14 @@ public class Controller {
 		if (selectingTree) { return; }
 		view.showTreesChoice();
 		selectingTree = true;
-		treeChoices = parseTree.getAdjustedTrees();
 	}
 	
 	public void showTree(int index) {
-		view.setDisplay(treeChoices.get(index).toString());
+		view.setDisplay(session.getTreeChoices().get(index).toString());
 	}
 	
 	public void chooseTree(int index) {
-		parseTree = treeChoices.get(index);
+		query = session.chooseTree(index);
 		finishTreeSelection();
 	}
 	
@@ -196,21 +201,64 @@ public class Controller {
 // ------------------------------------- //
 	
 	public void processAfterTreeSelection() {
-		System.out.println("The tree before implicit nodes insertion: ");
-		System.out.println(parseTree);
-		parseTree.insertImplicitNodes();
-		System.out.println("Going to do translation for tree: ");
-		System.out.println(parseTree);
-		query = parseTree.translateToSQL(schema);	
+		System.out.println("Translated tree: ");
+		System.out.println(session.getParseTree());
 		view.setDisplay(query.toString());
+		if (query.isExecutable()) { displayRows(); }
 		processing = false;		
 	}
 	
+	/**
+	 * Display the first rows of the query once they are read, by a background
+	 * task so that the view stays responsive. Only these rows are read, the
+	 * cursor is closed before the others are fetched. A query still running
+	 * for a previous sentence is cancelled.
+	 */
+	private void displayRows() {
+		if (rowsQuery != null) { rowsQuery.cancel(); }
+		Cancellation cancellation = new Cancellation();
+		rowsQuery = cancellation;
+		SQLQuery shown = query;
+		Task<String> task = new Task<String>() {
+			@Override
+			protected String call() throws SQLException {
+				return readRows(shown, cancellation);
+			}
+		};
+		// the handlers run on the JavaFX application thread
+		task.setOnSucceeded(e -> {
+			if (rowsQuery == cancellation) { view.appendDisplay(task.getValue()); }
+		});
+		task.setOnFailed(e -> {
+			if (rowsQuery == cancellation) {
+				view.appendDisplay("\nCannot execute the query: "+task.getException().getMessage());
+			}
+		});
+		Thread thread = new Thread(task, "Query rows");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * The first rows of the query as text, a line per row after the labels of the columns.
+	 */
+	private String readRows(SQLQuery query, Cancellation cancellation) throws SQLException {
+		try (ResultCursor rows = executor.open(query, MAX_ROWS, cancellation)) {
+			StringBuilder sb = new StringBuilder("\n").append(String.join("\t", rows.getColumns())).append("\n");
+			for (Object[] row : rows.nextChunk()) {
+				for (int i = 0; i < row.length; i++) {
+					sb.append(i > 0 ? "\t" : "").append(row[i]);
+				}
+				sb.append("\n");
+			}
+			if (!rows.isDone()) { sb.append("(first ").append(MAX_ROWS).append(" rows)\n"); }
+			return sb.toString();
+		}
+	}
+	
 	public void processAfterNodesMapping() {
-		System.out.println("Going to remove meaningless nodes for tree: ");
-		System.out.println(parseTree);
-		parseTree.removeMeaninglessNodes();
-		parseTree.mergeLNQN();
+		System.out.println("Tree without meaningless nodes: ");
+		System.out.println(session.getParseTree());
 		startTreeSelection();
 	}
 	
@@ -222,7 +270,7 @@ public class Controller {
 	public void processNaturalLanguage(String input) {
 		if (processing) { view.appendDisplay("\nCurrently processing a sentence!\n"); }
 		processing = true;
-		parseTree = new ParseTree(input, parser);
+		session = new MappingSession(new ParseTree(input, parser), nodeMapper, schema);
 		startMappingNodes();
 	}
 
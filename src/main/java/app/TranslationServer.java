@@ -0,0 +1,619 @@
+package app;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import model.ConnectionPool;
+import model.MappingSession;
+import model.NLParser;
+import model.NodeInfo;
+import model.NodeMapper;
+import model.ParseTree;
+import model.QueryExecutor;
+import model.QueryExecutor.Cancellation;
+import model.ResultCursor;
+import model.SQLQuery;
+import model.SchemaGraph;
+import model.SessionTable;
+import model.TranslationService;
+
+/**
+ * <p>Embedded HTTP server translating questions to SQL, without the JavaFX view.
+ * The question is the parameter q of a GET or the body of a POST:</p>
+ * <ul>
+ *   <li>/translate returns the SQL query.</li>
+ *   <li>/execute runs the query and returns the rows, tab separated, after a header line.
+ *   Only the first 1000 rows are returned, followed by a line TRUNCATED: if there are more.</li>
+ *   <li>/stream is like /execute, but without a maximum number of rows. The rows are sent
+ *   as they are read, as fast as the client reads them, up to an optional limit and for
+ *   at most 10 minutes. A stream stopped before the last row ends with a line ERROR: and
+ *   the reason.</li>
+ *   <li>/session starts a session for the user to map the nodes and choose the tree,
+ *   then id with node or tree gives the index of a choice, and id alone shows the session.</li>
+ *   <li>/stats returns the numbers of requests and the state of the workers.</li>
+ * </ul>
+ * <p>Requests are run by a fixed number of workers with a bounded queue. A request
+ * that does not fit in the queue is answered 503 at once, and a request not done
+ * within the timeout, counted from its acceptance, is answered 504, its worker
+ * interrupted and its query cancelled. Bodies are read by the workers, and a
+ * body over 64 KB is answered 413. A request whose body is not read within
+ * the timeout has its connection closed without an answer. The rows of /stream are sent by as many
+ * other threads, and a stream that finds them all busy is answered 503. The
+ * parser, the node mapper with its WordNet and the schema graph are shared by
+ * all requests. Sessions not used for some time are removed, as are the least
+ * recently used ones when there are too many.</p>
+ * @author keping
+ *
+ */
+public class TranslationServer {
+	private static final String DB_URL = "jdbc:postgresql://127.0.0.1:5432/dblp";
+	private static final String DB_USER = "dblpuser";
+	private static final String DB_PASSWORD = "dblpuser";
+	/**
+	 * Maximum number of rows returned by /execute.
+	 */
+	private static final int MAX_ROWS = 1000;
+	private static final int FETCH_SIZE = 100;
+	/**
+	 * Number of rows read from the cursor and sent at a time by /stream.
+	 */
+	private static final int CHUNK_SIZE = 1000;
+	private static final int MAX_SESSIONS = 10000;
+	private static final int SESSION_TTL_MINUTES = 30;
+	/**
+	 * Maximum size of a request body in bytes, larger ones are answered 413.
+	 */
+	private static final int MAX_BODY = 64*1024;
+	/**
+	 * Maximum time to send the rows of /stream, the query is cancelled after it.
+	 */
+	private static final long MAX_STREAM_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	/**
+	 * Number of threads running the handlers, which only queue the requests.
+	 */
+	private static final int HANDLERS = 2;
+	private static final String BODY_TOO_LARGE = "Request body over "+MAX_BODY+" bytes.\n";
+	private static final Reply MISSING_QUESTION = new Reply(400, "Missing question, give it as parameter q or as the body.\n");
+
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	private final ThreadPoolExecutor workers;
+	/**
+	 * Send the rows of /stream, so that slow clients do not hold the workers.
+	 */
+	private final ThreadPoolExecutor streams;
+	/**
+	 * Answers requests that timed out and removes expired sessions.
+	 */
+	private final ScheduledExecutorService timer;
+	private final SessionTable<MappingSession> sessions = new SessionTable<MappingSession>(
+			MAX_SESSIONS, SESSION_TTL_MINUTES, TimeUnit.MINUTES);
+	private final TranslationService service;
+	private final QueryExecutor executor;
+	private final long timeoutMillis;
+	private final AtomicLong served = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Work of a request, run by a worker. Queries run with the cancellation
+	 * are cancelled when the request times out.
+	 */
+	private interface Action {
+		Reply run(Map<String, String> params, Cancellation cancellation) throws SQLException;
+	}
+
+	/**
+	 * A request from its acceptance. It is answered by the worker or the timer,
+	 * whichever sets answered first, and a timed out request is answered 504
+	 * or dropped by whichever sets replied first.
+	 */
+	private static final class Request {
+		final HttpExchange exchange;
+		final Cancellation cancellation = new Cancellation();
+		final AtomicBoolean answered = new AtomicBoolean(false);
+		final AtomicBoolean replied = new AtomicBoolean(false);
+		/**
+		 * Whether the worker read the body. Until then the timer cannot answer,
+		 * as closing the exchange after a reply would wait for the rest of the body.
+		 */
+		volatile boolean bodyRead = false;
+
+		Request(HttpExchange exchange) {
+			this.exchange = exchange;
+		}
+	}
+
+	private static class Reply {
+		final int status;
+		final String body;
+
+		Reply(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		void sendTo(HttpExchange exchange) {
+			sendQuietly(exchange, status, body);
+		}
+
+		/**
+		 * Free what the reply holds when it is not sent.
+		 */
+		void discard() { }
+	}
+
+	/**
+	 * Rows of a cursor sent as they are read, with a chunked response, by one of
+	 * the stream threads. Writing blocks while the client is not reading, and
+	 * then so does the reading of the cursor. The cursor is closed after the
+	 * limit, when the client is gone, or after MAX_STREAM_MILLIS, when its query
+	 * is cancelled and the connection closed even if the client stopped reading.
+	 * A stream stopped before the last row ends with an error line, when the
+	 * client can still be written to.
+	 */
+	private final class StreamReply extends Reply {
+		private final ResultCursor cursor;
+		private final Cancellation cancellation;
+		/**
+		 * Maximum number of rows, 0 for all.
+		 */
+		private final long limit;
+		private volatile boolean expired = false;
+		/**
+		 * Thread writing the rows, null when none, guarded by this.
+		 */
+		private Thread writer = null;
+
+		StreamReply(ResultCursor cursor, Cancellation cancellation, long limit) {
+			super(200, null);
+			this.cursor = cursor;
+			this.cancellation = cancellation;
+			this.limit = limit;
+		}
+
+		@Override
+		void sendTo(HttpExchange exchange) {
+			try {
+				streams.execute(() -> write(exchange));
+			} catch (RejectedExecutionException e) {
+				cursor.close();
+				rejected.incrementAndGet();
+				sendQuietly(exchange, 503, "Too many streams, try again later.\n");
+			}
+		}
+
+		private void write(HttpExchange exchange) {
+			synchronized (this) { writer = Thread.currentThread(); }
+			ScheduledFuture<?> deadline = timer.schedule(() -> expire(exchange), MAX_STREAM_MILLIS, TimeUnit.MILLISECONDS);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+					ResultCursor rows = cursor) {
+				exchange.sendResponseHeaders(200, 0);
+				out.write(String.join("\t", rows.getColumns()));
+				out.write("\n");
+				long written = 0;
+				try {
+					for (List<Object[]> chunk = rows.nextChunk(); !chunk.isEmpty(); chunk = rows.nextChunk()) {
+						for (Object[] row : chunk) {
+							if (limit > 0 && written == limit) { return; }
+							for (int i = 0; i < row.length; i++) {
+								out.write(i > 0 ? "\t" : "");
+								out.write(String.valueOf(row[i]));
+							}
+							out.write("\n");
+							written++;
+						}
+						out.flush();
+					}
+					if (!rows.isDone()) { throw new SQLException("Cursor closed"); }
+				} catch (SQLException e) {
+					String reason = expired ? "stopped after "+MAX_STREAM_MILLIS+" ms" : e.getMessage();
+					System.out.println("Stream of "+exchange.getRequestURI()+" "+reason+" after "+written+" rows");
+					out.write("ERROR: "+reason+"\n");
+				}
+			} catch (IOException e) {
+				String reason = expired ? "stopped after "+MAX_STREAM_MILLIS+" ms" : e.getMessage();
+				System.out.println("Cannot answer "+exchange.getRequestURI()+": "+reason);
+			} finally {
+				deadline.cancel(false);
+				synchronized (this) {
+					writer = null;
+					Thread.interrupted(); // from a deadline that came too late
+				}
+				exchange.close();
+			}
+		}
+
+		/**
+		 * Stop the stream at the deadline: cancel the query, close the cursor and
+		 * close the exchange. The writer is interrupted first, which closes the
+		 * connection if it is blocked on a client that stopped reading; closing
+		 * the exchange would otherwise wait for it.
+		 */
+		private void expire(HttpExchange exchange) {
+			expired = true;
+			cancellation.cancel();
+			cursor.close();
+			synchronized (this) {
+				if (writer == null) { return; }
+				writer.interrupt();
+			}
+			exchange.close();
+		}
+
+		@Override
+		void discard() {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * @param address
+	 * @param service translates the questions and starts the sessions
+	 * @param executor runs the queries of /execute and /stream, with a connection
+	 * for each worker and each stream thread, and a borrow timeout after which the
+	 * request is answered 503
+	 * @param threads number of workers, and of threads sending the rows of /stream
+	 * @param queueSize number of requests waiting for a worker before new ones are rejected
+	 * @param timeoutMillis time to answer a request
+	 * @throws IOException if the address cannot be bound
+	 */
+	public TranslationServer(InetSocketAddress address, TranslationService service, QueryExecutor executor,
+			int threads, int queueSize, long timeoutMillis) throws IOException {
+		this.service = service;
+		this.executor = executor;
+		this.timeoutMillis = timeoutMillis;
+		workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize));
+		streams = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new SynchronousQueue<Runnable>());
+		timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "TranslationServer timer");
+			t.setDaemon(true);
+			return t;
+		});
+		handlers = Executors.newFixedThreadPool(HANDLERS, r -> new Thread(r, "TranslationServer handler"));
+		server = HttpServer.create(address, 0);
+		server.setExecutor(handlers);
+		server.createContext("/translate", exchange -> submit(exchange, this::translate));
+		server.createContext("/execute", exchange -> submit(exchange, this::execute));
+		server.createContext("/stream", exchange -> submit(exchange, this::stream));
+		server.createContext("/session", exchange -> submit(exchange, this::session));
+		server.createContext("/stats", exchange -> send(exchange, 200, getStats()));
+		timer.scheduleWithFixedDelay(sessions::evictExpired, 1, 1, TimeUnit.MINUTES);
+	}
+
+	public void start() {
+		server.start();
+		System.out.println("Translation server listening on "+server.getAddress());
+	}
+
+	/**
+	 * Stop accepting requests, wait up to the timeout for running ones, then stop the workers.
+	 */
+	public void stop() {
+		server.stop(0);
+		handlers.shutdown();
+		workers.shutdown();
+		try {
+			workers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		workers.shutdownNow();
+		streams.shutdownNow();
+		timer.shutdownNow();
+	}
+
+	public InetSocketAddress getAddress() { return server.getAddress(); }
+
+	public String getStats() {
+		return String.format("served=%d, rejected=%d, timedOut=%d, failed=%d, active=%d, queued=%d, streaming=%d%nsessions: %s%n",
+				served.get(), rejected.get(), timedOut.get(), failed.get(), workers.getActiveCount(), workers.getQueue().size(),
+				streams.getActiveCount(), sessions);
+	}
+
+	/**
+	 * Queue the request for a worker, or answer 503 if the queue is full and 413
+	 * if the announced body is too large. The timeout starts now, and the body
+	 * is read by the worker. Whichever of the worker and the timer comes first
+	 * answers the request. A request whose body is not read by the timeout,
+	 * because it is still queued or the client is slow to send it, is dropped:
+	 * its connection is closed, which stops the read.
+	 */
+	private void submit(HttpExchange exchange, Action action) throws IOException {
+		if (isTooLarge(exchange.getRequestHeaders().getFirst("Content-Length"))) {
+			failed.incrementAndGet();
+			send(exchange, 413, BODY_TOO_LARGE);
+			return;
+		}
+		Request request = new Request(exchange);
+		Future<?> work;
+		try {
+			work = workers.submit(() -> answer(request, action));
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			send(exchange, 503, "Too many requests, try again later.\n");
+			return;
+		}
+		timer.schedule(() -> {
+			if (request.answered.compareAndSet(false, true)) {
+				timedOut.incrementAndGet();
+				request.cancellation.cancel();
+				work.cancel(true);
+				if (request.bodyRead) { sendTimeout(request); }
+				else { drop(request); }
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Read the parameters and, unless the request already timed out, run the action and answer.
+	 */
+	private void answer(Request request, Action action) {
+		Reply reply;
+		try {
+			Map<String, String> params = readParams(request.exchange);
+			request.bodyRead = true;
+			if (request.answered.get()) {
+				sendTimeout(request);
+				return;
+			}
+			reply = params == null ? new Reply(413, BODY_TOO_LARGE) : action.run(params, request.cancellation);
+		} catch (IOException e) {
+			request.bodyRead = true;
+			reply = new Reply(400, "Cannot read the request: "+e.getMessage()+"\n");
+		} catch (SQLTransientConnectionException e) {
+			reply = new Reply(503, "No database connection available, try again later.\n");
+		} catch (SQLException e) {
+			reply = new Reply(500, "SQL error: "+e.getMessage()+"\n");
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			reply = new Reply(500, "Translation failed: "+e+"\n");
+		}
+		if (request.answered.compareAndSet(false, true)) {
+			if (reply.status == 200) { served.incrementAndGet(); }
+			else { failed.incrementAndGet(); }
+			reply.sendTo(request.exchange);
+		} else {
+			reply.discard();
+			sendTimeout(request);
+		}
+	}
+
+	/**
+	 * Close the connection of a timed out request without answering, unless
+	 * the worker or the timer already answered. Nothing was sent, so closing
+	 * does not wait for the rest of the body.
+	 */
+	private static void drop(Request request) {
+		if (request.replied.compareAndSet(false, true)) {
+			request.exchange.close();
+		}
+	}
+
+	/**
+	 * Answer 504 to a timed out request, unless the worker or the timer already did.
+	 */
+	private void sendTimeout(Request request) {
+		if (request.replied.compareAndSet(false, true)) {
+			sendQuietly(request.exchange, 504, "Not answered within "+timeoutMillis+" ms.\n");
+		}
+	}
+
+	private Reply translate(Map<String, String> params, Cancellation cancellation) {
+		String question = params.get("q");
+		if (question == null) { return MISSING_QUESTION; }
+		return new Reply(200, translateNow(question).toString());
+	}
+
+	private Reply execute(Map<String, String> params, Cancellation cancellation) throws SQLException {
+		String question = params.get("q");
+		if (question == null) { return MISSING_QUESTION; }
+		SQLQuery query = translateNow(question);
+		if (!query.isExecutable()) { return new Reply(422, "Cannot execute:\n"+query); }
+		return new Reply(200, executor.execute(query, MAX_ROWS+1, cancellation, QueryExecutor.text(MAX_ROWS)));
+	}
+
+	/**
+	 * Like execute, but all the rows, or the first limit rows, are sent as they are read.
+	 */
+	private Reply stream(Map<String, String> params, Cancellation cancellation) throws SQLException {
+		String question = params.get("q");
+		if (question == null) { return MISSING_QUESTION; }
+		long limit;
+		try {
+			limit = params.containsKey("limit") ? Long.parseLong(params.get("limit")) : 0;
+		} catch (NumberFormatException e) {
+			limit = -1;
+		}
+		if (limit < 0) { return new Reply(400, "Invalid limit: "+params.get("limit")+"\n"); }
+		SQLQuery query = translateNow(question);
+		if (!query.isExecutable()) { return new Reply(422, "Cannot execute:\n"+query); }
+		return new StreamReply(executor.open(query, CHUNK_SIZE, cancellation), cancellation, limit);
+	}
+
+	private SQLQuery translateNow(String question) {
+		return service.translateNow(question, TranslationService.BEST_NODE_INFO, TranslationService.BEST_TREE);
+	}
+
+	/**
+	 * Start a session for q, or make the choice given by node or tree in the
+	 * session id, and show the session.
+	 */
+	private Reply session(Map<String, String> params, Cancellation cancellation) {
+		String id = params.get("id");
+		if (id == null) {
+			String question = params.get("q");
+			if (question == null) { return MISSING_QUESTION; }
+			MappingSession session = service.startSession(question);
+			return new Reply(200, describe(sessions.add(session), session));
+		}
+		MappingSession session = sessions.get(id);
+		if (session == null) { return new Reply(404, "No session "+id+", it may have expired.\n"); }
+		try {
+			if (params.containsKey("node")) {
+				session.chooseNode(Integer.parseInt(params.get("node")));
+			} else if (params.containsKey("tree")) {
+				session.chooseTree(Integer.parseInt(params.get("tree")));
+			}
+		} catch (NumberFormatException | IndexOutOfBoundsException e) {
+			return new Reply(400, "Invalid choice: "+e.getMessage()+"\n");
+		} catch (IllegalStateException e) {
+			return new Reply(409, e.getMessage()+"\n");
+		}
+		return new Reply(200, describe(id, session));
+	}
+
+	/**
+	 * The ID of the session and, depending on its state, the choices for the
+	 * current node, the adjusted trees or the query.
+	 */
+	private static String describe(String id, MappingSession session) {
+		StringBuilder sb = new StringBuilder("session ").append(id).append("\n");
+		synchronized (session) {
+			if (session.isMappingNodes()) {
+				sb.append("Mapping nodes: ").append(session.getParseTree().getSentence()).append("\n");
+				sb.append("Currently on: ").append(session.getNode()).append("\n");
+				List<NodeInfo> choices = session.getNodeChoices();
+				for (int i = 0; i < choices.size(); i++) {
+					sb.append(i).append("\t").append(choices.get(i)).append("\n");
+				}
+			} else if (session.isSelectingTree()) {
+				List<ParseTree> trees = session.getTreeChoices();
+				for (int i = 0; i < trees.size(); i++) {
+					sb.append("Tree ").append(i).append(":\n").append(trees.get(i)).append("\n");
+				}
+			} else {
+				sb.append(session.getQuery());
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The parameters of the query string. Without a parameter q, a non empty body is taken as q.
+	 * @return the parameters, or null if the body is over MAX_BODY bytes
+	 */
+	private static Map<String, String> readParams(HttpExchange exchange) throws IOException {
+		Map<String, String> params = new HashMap<String, String>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String param : query.split("&")) {
+				int eq = param.indexOf('=');
+				String value = eq < 0 ? "" : decode(param.substring(eq+1)).trim();
+				params.put(decode(eq < 0 ? param : param.substring(0, eq)), value);
+			}
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (InputStream in = exchange.getRequestBody()) {
+			byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) > 0; ) {
+				body.write(buffer, 0, n);
+				if (body.size() > MAX_BODY) { return null; }
+			}
+		}
+		String text = new String(body.toByteArray(), StandardCharsets.UTF_8).trim();
+		if (!params.containsKey("q") && !text.isEmpty()) { params.put("q", text); }
+		if ("".equals(params.get("q"))) { params.remove("q"); }
+		return params;
+	}
+
+	/**
+	 * @param contentLength the Content-Length header, or null
+	 * @return whether the body is announced over MAX_BODY bytes
+	 */
+	private static boolean isTooLarge(String contentLength) {
+		try {
+			return contentLength != null && Long.parseLong(contentLength.trim()) > MAX_BODY;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static String decode(String s) {
+		try {
+			return URLDecoder.decode(s, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Answer from a worker or the timer, where the client may be gone.
+	 */
+	private static void sendQuietly(HttpExchange exchange, int status, String body) {
+		try {
+			send(exchange, status, body);
+		} catch (IOException e) {
+			System.out.println("Cannot answer "+exchange.getRequestURI()+": "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Start a server on the port given as first argument, 8080 by default, for the
+	 * database of the application. Workers, queue size and timeout can be given as
+	 * the next arguments.
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int queueSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+		long timeoutMillis = args.length > 3 ? Long.parseLong(args[3]) : 10000;
+
+		NLParser.preload(); // load the parser while reading the schema
+		// a connection for each worker and each stream being sent
+		ConnectionPool pool = new ConnectionPool(DB_URL, DB_USER, DB_PASSWORD, 2*threads);
+		SchemaGraph schema = new SchemaGraph(pool, new File("schema_dblp.cache"), threads, 60);
+		TranslationService service = new TranslationService(NLParser.getInstance(), new NodeMapper(), schema, null);
+		QueryExecutor executor = new QueryExecutor(pool, (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeoutMillis)),
+				FETCH_SIZE, timeoutMillis/2);
+		TranslationServer server = new TranslationServer(new InetSocketAddress(port), service, executor, threads, queueSize, timeoutMillis);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.stop();
+			pool.close();
+		}));
+		server.start();
+	}
+}
@@ -0,0 +1,214 @@
+package model;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of JDBC connections. Connections are opened when needed,
+ * up to the maximum size, and borrowing blocks while all of them are in use.
+ * An idle connection is checked before it is lent, and a dead one, for
+ * instance after a network error or a restart of the database, is closed
+ * and replaced by a new one.
+ * @author keping
+ *
+ */
+public class ConnectionPool implements AutoCloseable {
+	/**
+	 * Time given to a connection to answer the check before it is lent, in seconds.
+	 */
+	private static final int VALIDATION_TIMEOUT = 2;
+	/**
+	 * Time between two looks at whether the pool was closed while waiting for a connection.
+	 */
+	private static final long WAIT_MILLIS = 100;
+	private final String url;
+	private final String user;
+	private final String password;
+	private final int maxSize;
+	private final LinkedBlockingQueue<Connection> idle = new LinkedBlockingQueue<>();
+	/**
+	 * All connections opened by the pool, guarded by this.
+	 */
+	private final List<Connection> opened = new ArrayList<>();
+	/**
+	 * Whether the pool owns (and closes) its connections.
+	 */
+	private final boolean owned;
+	private volatile boolean closed = false;
+
+	public ConnectionPool(String url, String user, String password, int maxSize) {
+		if (maxSize < 1) { throw new IllegalArgumentException("maxSize must be positive"); }
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.maxSize = maxSize;
+		this.owned = true;
+	}
+
+	/**
+	 * A pool of one existing connection, which is not closed by {@link #close()}.
+	 * @param c
+	 */
+	public ConnectionPool(Connection c) {
+		this.url = null;
+		this.user = null;
+		this.password = null;
+		this.maxSize = 1;
+		this.owned = false;
+		opened.add(c);
+		idle.add(c);
+	}
+
+	/**
+	 * Borrow a connection, waiting for one to be released if all are in use.
+	 * It must be given back with {@link #release(Connection)}.
+	 * @return connection
+	 * @throws SQLException if a connection cannot be opened, the pool is closed, or when interrupted
+	 */
+	public Connection borrow() throws SQLException {
+		return borrow(0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrow a connection, waiting at most the timeout for one to be released
+	 * if all are in use. It must be given back with {@link #release(Connection)}.
+	 * @param timeout maximum time to wait, 0 for no limit
+	 * @param unit unit of the timeout
+	 * @return connection
+	 * @throws SQLTransientConnectionException if no connection is released within the timeout
+	 * @throws SQLException if a connection cannot be opened, the pool is closed, or when interrupted
+	 */
+	public Connection borrow(long timeout, TimeUnit unit) throws SQLException {
+		long deadline = timeout > 0 ? System.nanoTime() + unit.toNanos(timeout) : 0;
+		for (;;) {
+			if (closed) { throw new SQLException("Connection pool closed"); }
+			Connection c = idle.poll();
+			if (c == null) {
+				c = open();
+				if (c != null) { return c; }
+				c = waitIdle(deadline);
+			}
+			if (!owned || isAlive(c)) { return c; }
+			System.out.println("Replacing a dead connection of the pool");
+			discard(c);
+		}
+	}
+
+	/**
+	 * Open a new connection if the pool is not full.
+	 * @return the connection, or null if the pool is full
+	 */
+	private Connection open() throws SQLException {
+		synchronized (this) {
+			if (closed) { throw new SQLException("Connection pool closed"); }
+			if (!owned || opened.size() >= maxSize) { return null; }
+			opened.add(null); // reserve a place
+		}
+		Connection c;
+		try {
+			c = DriverManager.getConnection(url, user, password);
+		} catch (SQLException e) {
+			synchronized (this) { opened.remove(null); }
+			throw e;
+		}
+		synchronized (this) {
+			opened.remove(null);
+			opened.add(c);
+		}
+		return c;
+	}
+
+	/**
+	 * Wait for a connection to be released.
+	 * @param deadline value of System.nanoTime() when to stop waiting, 0 for none
+	 */
+	private Connection waitIdle(long deadline) throws SQLException {
+		try {
+			for (;;) {
+				if (closed) { throw new SQLException("Connection pool closed"); }
+				long wait = TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS);
+				if (deadline != 0) {
+					long left = deadline - System.nanoTime();
+					if (left <= 0) {
+						throw new SQLTransientConnectionException("No connection released in time, all "+maxSize+" are in use");
+					}
+					wait = Math.min(wait, left);
+				}
+				Connection c = idle.poll(wait, TimeUnit.NANOSECONDS);
+				if (c != null) { return c; }
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", e);
+		}
+	}
+
+	private static boolean isAlive(Connection c) {
+		try {
+			return !c.isClosed() && c.isValid(VALIDATION_TIMEOUT);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Close a connection and free its place in the pool.
+	 */
+	private void discard(Connection c) {
+		synchronized (this) { opened.remove(c); }
+		try {
+			c.close();
+		} catch (SQLException e) {
+			System.out.println("Cannot close connection: "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Give back a borrowed connection. It is closed instead if the pool is
+	 * closed, or if it is closed already.
+	 * @param c
+	 */
+	public void release(Connection c) {
+		if (c == null || (closed && !owned)) { return; }
+		if (owned && (closed || isClosed(c))) {
+			discard(c);
+			return;
+		}
+		idle.offer(c);
+	}
+
+	private static boolean isClosed(Connection c) {
+		try {
+			return c.isClosed();
+		} catch (SQLException e) {
+			return true;
+		}
+	}
+
+	public int getMaxSize() { return maxSize; }
+
+	/**
+	 * Close all connections opened by the pool.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		if (owned) {
+			for (Connection c : opened) {
+				try {
+					if (c != null) { c.close(); }
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		opened.clear();
+		idle.clear();
+	}
+}
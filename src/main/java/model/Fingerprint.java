@@ -0,0 +1,59 @@
+package model;
+
+/**
+ * 64-bit structural fingerprints of parse trees, see {@link Node#fingerprint()}.
+ * Equal trees have equal fingerprints, different trees almost never do,
+ * but equality still has to be checked.
+ * @author keping
+ *
+ */
+final class Fingerprint {
+	private static final long PRIME_1 = 0x9E3779B97F4A7C15L;
+	private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+
+	private Fingerprint() { }
+
+	/**
+	 * Fingerprint of a node from its fields and the fingerprints of its children in order.
+	 */
+	static long of(int index, String word, String posTag, NodeInfo info, long[] children) {
+		long h = mix(PRIME_1, index);
+		h = mix(h, of(word));
+		h = mix(h, of(posTag));
+		h = mix(h, info == null ? 0 : mix(of(info.getType()), of(info.getValue())));
+		for (long child : children) {
+			h = mix(h, child);
+		}
+		return finish(h ^ children.length);
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the chars of a string, 0 for null.
+	 */
+	static long of(String s) {
+		if (s == null) { return 0; }
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001B3L;
+		}
+		return h;
+	}
+
+	private static long mix(long h, long x) {
+		x *= PRIME_2;
+		x = Long.rotateLeft(x, 31);
+		x *= PRIME_1;
+		h ^= x;
+		return Long.rotateLeft(h, 27) * 5 + 0x52DCE729;
+	}
+
+	private static long finish(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,231 @@
+package model;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import edu.mit.jwi.IDictionary;
+import edu.mit.jwi.item.ISynset;
+import edu.mit.jwi.item.ISynsetID;
+import edu.mit.jwi.item.POS;
+import edu.mit.jwi.item.Pointer;
+
+/**
+ * <p>Precomputed depth and ancestors of every noun synset, so that the WUP similarity
+ * in {@link WordNet} does not need to search the hypernym graph.</p>
+ * <p>Synsets are numbered by the position of their offset in a sorted array.
+ * The ancestors of a synset (including itself) are stored sorted by number,
+ * together with the least number of hypernym edges to reach them.</p>
+ * <p>The arrays are kept in {@link IntBuffer}s, so that a table read from a
+ * {@link WordNetSnapshot} can stay in the mapped file.</p>
+ * @author keping
+ *
+ */
+public class HypernymTable {
+	/**
+	 * Sorted synset offsets. The position in this array is the synset number.
+	 */
+	private final IntBuffer offsets;
+	/**
+	 * Least number of hypernym edges from the synset to a top synset.
+	 */
+	private final IntBuffer depths;
+	/**
+	 * Ancestors of synset i are ancestorIds[ancestorStart[i]..ancestorStart[i+1]).
+	 */
+	private final IntBuffer ancestorStart;
+	private final IntBuffer ancestorIds;
+	private final IntBuffer ancestorDists;
+
+	/**
+	 * Build the table from all noun synsets in the dictionary.
+	 * @param dict opened dictionary
+	 * @return table of noun hypernyms
+	 */
+	public static HypernymTable fromDictionary(IDictionary dict) {
+		Map<Integer, int[]> hypernyms = new HashMap<>();
+		Iterator<ISynset> iter = dict.getSynsetIterator(POS.NOUN);
+		while (iter.hasNext()) {
+			ISynset synset = iter.next();
+			List<ISynsetID> hyperIDs = synset.getRelatedSynsets(Pointer.HYPERNYM);
+			int[] hyperOffsets = new int[hyperIDs.size()];
+			for (int i = 0; i < hyperOffsets.length; i++) { hyperOffsets[i] = hyperIDs.get(i).getOffset(); }
+			hypernyms.put(synset.getOffset(), hyperOffsets);
+		}
+		return new HypernymTable(hypernyms);
+	}
+
+	/**
+	 * Build the table from the hypernym offsets of each synset offset.
+	 * @param hypernyms synset offset, offsets of its hypernyms
+	 */
+	HypernymTable(Map<Integer, int[]> hypernyms) {
+		int N = hypernyms.size();
+		int[] offsets = new int[N];
+		int k = 0;
+		for (int offset : hypernyms.keySet()) { offsets[k++] = offset; }
+		Arrays.sort(offsets);
+
+		int[][] parents = new int[N][];
+		for (int i = 0; i < N; i++) {
+			int[] hyperOffsets = hypernyms.get(offsets[i]);
+			int[] ids = new int[hyperOffsets.length];
+			int n = 0;
+			for (int offset : hyperOffsets) {
+				int id = Arrays.binarySearch(offsets, offset);
+				if (id >= 0) { ids[n++] = id; }
+			}
+			parents[i] = Arrays.copyOf(ids, n);
+		}
+
+		int[] depths = new int[N];
+		Arrays.fill(depths, -1);
+		int[][] ancestors = new int[N][]; // interleaved id, dist
+		for (int i = 0; i < N; i++) { findAncestors(i, parents, depths, ancestors); }
+
+		int[] ancestorStart = new int[N+1];
+		for (int i = 0; i < N; i++) { ancestorStart[i+1] = ancestorStart[i] + ancestors[i].length / 2; }
+		int[] ancestorIds = new int[ancestorStart[N]];
+		int[] ancestorDists = new int[ancestorStart[N]];
+		for (int i = 0; i < N; i++) {
+			int[] anc = ancestors[i];
+			for (int j = 0; j < anc.length / 2; j++) {
+				ancestorIds[ancestorStart[i]+j] = anc[2*j];
+				ancestorDists[ancestorStart[i]+j] = anc[2*j+1];
+			}
+		}
+		this.offsets = IntBuffer.wrap(offsets);
+		this.depths = IntBuffer.wrap(depths);
+		this.ancestorStart = IntBuffer.wrap(ancestorStart);
+		this.ancestorIds = IntBuffer.wrap(ancestorIds);
+		this.ancestorDists = IntBuffer.wrap(ancestorDists);
+	}
+
+	/**
+	 * Table read back from a buffer written by {@link #writeTo(DataOutputStream)}.
+	 * The position of the buffer is moved past the table.
+	 * @param buf
+	 */
+	HypernymTable(ByteBuffer buf) {
+		int N = buf.getInt();
+		offsets = WordNetSnapshot.intView(buf, N);
+		depths = WordNetSnapshot.intView(buf, N);
+		ancestorStart = WordNetSnapshot.intView(buf, N+1);
+		int M = ancestorStart.get(N);
+		ancestorIds = WordNetSnapshot.intView(buf, M);
+		ancestorDists = WordNetSnapshot.intView(buf, M);
+	}
+
+	/**
+	 * Write the table, see {@link #HypernymTable(ByteBuffer)}.
+	 * @param out
+	 * @throws IOException
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		int N = size();
+		out.writeInt(N);
+		WordNetSnapshot.writeInts(out, offsets);
+		WordNetSnapshot.writeInts(out, depths);
+		WordNetSnapshot.writeInts(out, ancestorStart);
+		WordNetSnapshot.writeInts(out, ancestorIds);
+		WordNetSnapshot.writeInts(out, ancestorDists);
+	}
+
+	/**
+	 * Fill depths[id] and ancestors[id] (sorted by id, interleaved with distance),
+	 * computing the hypernyms first. Hypernyms of WordNet nouns form a DAG,
+	 * so the recursion is only as deep as the hierarchy.
+	 */
+	private static int[] findAncestors(int id, int[][] parents, int[] depths, int[][] ancestors) {
+		if (ancestors[id] != null) { return ancestors[id]; }
+		ancestors[id] = new int[] {id, 0}; // guards against cycles
+		Map<Integer, Integer> dist = new HashMap<>();
+		dist.put(id, 0);
+		int depth = parents[id].length == 0 ? 0 : Integer.MAX_VALUE;
+		for (int parent : parents[id]) {
+			int[] anc = findAncestors(parent, parents, depths, ancestors);
+			for (int j = 0; j < anc.length; j += 2) {
+				Integer old = dist.get(anc[j]);
+				if (old == null || old > anc[j+1] + 1) { dist.put(anc[j], anc[j+1] + 1); }
+			}
+			if (depths[parent] >= 0) { depth = Math.min(depth, depths[parent] + 1); }
+		}
+		depths[id] = depth == Integer.MAX_VALUE ? 0 : depth;
+		List<Integer> ids = new ArrayList<>(dist.keySet());
+		ids.sort(null);
+		int[] result = new int[2 * ids.size()];
+		for (int j = 0; j < ids.size(); j++) {
+			result[2*j] = ids.get(j);
+			result[2*j+1] = dist.get(ids.get(j));
+		}
+		ancestors[id] = result;
+		return result;
+	}
+
+	/**
+	 * Return the synset number of the offset, or -1 if it is not a noun synset.
+	 */
+	public int getId(int offset) {
+		int lo = 0, hi = size() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int midOffset = offsets.get(mid);
+			if (midOffset < offset) { lo = mid + 1; }
+			else if (midOffset > offset) { hi = mid - 1; }
+			else { return mid; }
+		}
+		return -1;
+	}
+
+	public int size() { return offsets.limit(); }
+
+	public int getDepth(int id) { return depths.get(id); }
+
+	/**
+	 * <p>WUP similarity between two words given by their synset numbers:</p>
+	 * <p>2*N3 / (N1+N2+2*N3)</p>
+	 * <p>where the common ancestor is the one closest to both words (least N1+N2),
+	 * the deeper one if there is a tie. N1 and N2 are the number of hypernym edges
+	 * to it from each word, N3 is its depth.</p>
+	 * @param ids1 synset numbers of the first word
+	 * @param ids2 synset numbers of the second word
+	 * @return similarity, 0 if there is no common ancestor
+	 */
+	public double similarity(int[] ids1, int[] ids2) {
+		int bestSum = Integer.MAX_VALUE;
+		int bestDepth = 0;
+		for (int a : ids1) {
+			for (int b : ids2) {
+				int i = ancestorStart.get(a), iEnd = ancestorStart.get(a+1);
+				int j = ancestorStart.get(b), jEnd = ancestorStart.get(b+1);
+				while (i < iEnd && j < jEnd) {
+					int ancestor1 = ancestorIds.get(i);
+					int ancestor2 = ancestorIds.get(j);
+					if (ancestor1 < ancestor2) { i++; }
+					else if (ancestor1 > ancestor2) { j++; }
+					else {
+						int sum = ancestorDists.get(i) + ancestorDists.get(j);
+						int depth = depths.get(ancestor1);
+						if (sum < bestSum || (sum == bestSum && depth > bestDepth)) {
+							bestSum = sum;
+							bestDepth = depth;
+						}
+						i++;
+						j++;
+					}
+				}
+			}
+		}
+		if (bestSum == Integer.MAX_VALUE) { return 0.0; }
+		if (bestSum == 0) { return 1.0; } // same synset
+		return 2*bestDepth / (double) (bestSum+2*bestDepth);
+	}
+
+}
@@ -0,0 +1,83 @@
+package model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe cache of bounded size, evicting the least recently used entry.
+ * It also counts hits, misses and evictions.
+ * @author keping
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class LRUCache<K, V> {
+	private final int capacity;
+	private final LinkedHashMap<K, V> map;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public LRUCache(int capacity) {
+		this.capacity = capacity;
+		this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				if (size() > LRUCache.this.capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Return the cached value of the key, or null if it is not cached.
+	 * @param key
+	 * @return cached value or null
+	 */
+	public synchronized V get(K key) {
+		V value = map.get(key);
+		if (value == null) { misses++; }
+		else { hits++; }
+		return value;
+	}
+
+	public synchronized void put(K key, V value) {
+		map.put(key, value);
+	}
+
+	/**
+	 * Return a copy of the entries, from the least to the most recently used.
+	 * Reading the copy does not count as use.
+	 */
+	public synchronized Map<K, V> snapshot() {
+		return new LinkedHashMap<K, V>(map);
+	}
+
+	public synchronized int size() { return map.size(); }
+	public int getCapacity() { return capacity; }
+	public synchronized long getHits() { return hits; }
+	public synchronized long getMisses() { return misses; }
+	public synchronized long getEvictions() { return evictions; }
+
+	/**
+	 * Fraction of get() calls that found the key, 0 if never called.
+	 */
+	public synchronized double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0.0 : hits / (double) total;
+	}
+
+	public synchronized void clear() {
+		map.clear();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("size=%d/%d, hits=%d, misses=%d, evictions=%d, hit rate=%.3f",
+				map.size(), capacity, hits, misses, evictions, getHitRate());
+	}
+}
@@ -0,0 +1,126 @@
+package model;
+
+import java.util.List;
+
+import model.ParseTree.ParseTreeIterator;
+
+/**
+ * <p>The state of one user translating one question interactively: the node
+ * being mapped with its choices, then the adjusted trees to choose from, then
+ * the query. Nodes with only one choice are mapped without asking.</p>
+ * <p>A session belongs to one user but may be called from different threads,
+ * so its methods are synchronized. Sessions of many users are kept in a
+ * {@link SessionTable}.</p>
+ * @author keping
+ *
+ */
+public class MappingSession {
+	private final NodeMapper nodeMapper;
+	private final SchemaGraph schema;
+	private ParseTree parseTree;
+	/**
+	 * Iterator for nodes mapping, null once all nodes are mapped.
+	 */
+	private ParseTreeIterator iter;
+	/**
+	 * Node being mapped and its choices, null once all nodes are mapped.
+	 */
+	private Node node;
+	private List<NodeInfo> nodeChoices;
+	/**
+	 * Adjusted trees, null before the nodes are mapped and after a tree is chosen.
+	 */
+	private List<ParseTree> treeChoices;
+	private SQLQuery query;
+
+	/**
+	 * Start mapping the nodes of the tree, up to the first node with more than one choice.
+	 * @param parseTree
+	 * @param nodeMapper
+	 * @param schema
+	 */
+	public MappingSession(ParseTree parseTree, NodeMapper nodeMapper, SchemaGraph schema) {
+		this.parseTree = parseTree;
+		this.nodeMapper = nodeMapper;
+		this.schema = schema;
+		iter = parseTree.iterator();
+		nextNode();
+	}
+
+	public synchronized boolean isMappingNodes() { return node != null; }
+	public synchronized boolean isSelectingTree() { return treeChoices != null; }
+	public synchronized boolean isDone() { return query != null; }
+
+	public synchronized ParseTree getParseTree() { return parseTree; }
+	/**
+	 * @return node being mapped, null if not mapping nodes
+	 */
+	public synchronized Node getNode() { return node; }
+	/**
+	 * @return choices for the node being mapped, best first, null if not mapping nodes
+	 */
+	public synchronized List<NodeInfo> getNodeChoices() { return nodeChoices; }
+	/**
+	 * @return adjusted trees, best first, null if not selecting a tree
+	 */
+	public synchronized List<ParseTree> getTreeChoices() { return treeChoices; }
+	/**
+	 * @return translated query, null before a tree is chosen
+	 */
+	public synchronized SQLQuery getQuery() { return query; }
+
+	/**
+	 * Map the current node, then move to the next node with more than one
+	 * choice. After the last node, the tree is cleaned and the adjusted
+	 * trees are computed.
+	 * @param info
+	 * @throws IllegalStateException if not mapping nodes
+	 */
+	public synchronized void chooseNode(NodeInfo info) {
+		if (node == null) { throw new IllegalStateException("Not mapping nodes"); }
+		node.setInfo(info);
+		nextNode();
+	}
+
+	/**
+	 * Like {@link #chooseNode(NodeInfo)} with the choice at the index.
+	 * @param index
+	 */
+	public synchronized void chooseNode(int index) {
+		if (node == null) { throw new IllegalStateException("Not mapping nodes"); }
+		chooseNode(nodeChoices.get(index));
+	}
+
+	/**
+	 * Choose one of the adjusted trees, insert its implicit nodes and translate it.
+	 * @param index
+	 * @return the query
+	 * @throws IllegalStateException if not selecting a tree
+	 */
+	public synchronized SQLQuery chooseTree(int index) {
+		if (treeChoices == null) { throw new IllegalStateException("Not selecting a tree"); }
+		parseTree = treeChoices.get(index);
+		treeChoices = null;
+		parseTree.insertImplicitNodes();
+		query = parseTree.translateToSQL(schema);
+		return query;
+	}
+
+	/**
+	 * Move to the next node with more than one choice, mapping the nodes with one.
+	 */
+	private void nextNode() {
+		while (iter.hasNext()) {
+			node = iter.next();
+			nodeChoices = nodeMapper.getNodeInfoChoices(node, schema);
+			if (nodeChoices.size() != 1) { return; }
+			node.setInfo(nodeChoices.get(0));
+		}
+		node = null;
+		nodeChoices = null;
+		iter = null;
+		parseTree.removeMeaninglessNodes();
+		parseTree.mergeLNQN();
+		treeChoices = parseTree.getAdjustedTrees();
+	}
+}
@@ -1,22 +1,331 @@
 package model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.TaggedWord;
 import edu.stanford.nlp.parser.nndep.DependencyParser;
+import edu.stanford.nlp.process.DocumentPreprocessor;
 import edu.stanford.nlp.tagger.maxent.MaxentTagger;
+import edu.stanford.nlp.trees.GrammaticalStructure;
+import edu.stanford.nlp.trees.TypedDependency;
 
 /**
- * Natural language parser, a wrapper of the Stanford NLP parser.
+ * <p>Natural language parser, a wrapper of the Stanford NLP parser.</p>
+ * <p>The tagger and the parser model are only read after loading, so one
+ * instance can parse in several threads. The process-wide instance is loaded
+ * in the background by {@link #preload()} and returned by {@link #getInstance()}.</p>
+ * <p>Dependencies of parsed questions are cached by their normalized text, so a
+ * repeated question skips tagging and parsing. The cache can be saved to a file
+ * and read back by another process.</p>
  * @author keping
  *
  */
 public class NLParser {
-	MaxentTagger tagger;
-	DependencyParser parser;
+	private static final String TAGGER_PATH = "edu/stanford/nlp/models/pos-tagger/english-left3words/english-left3words-distsim.tagger";
+	/**
+	 * Questions like those of users, parsed by {@link #warmup()}.
+	 */
+	private static final String[] WARMUP_QUESTIONS = {
+			"Return the number of papers published in VLDB after 2000.",
+			"Return authors who have more papers than Bob in VLDB after 2000.",
+			"Return the total citations of papers in each area.",
+			"Return the conference with the most papers.",
+			"Return the authors of papers with more than 100 citations before 1995."
+	};
+	private static final int WARMUP_ROUNDS = 5;
+	/**
+	 * Number of questions whose dependencies are cached.
+	 */
+	private static final int CACHE_SIZE = 10000;
+	private static final int CACHE_VERSION = 1;
+	/**
+	 * Loading of the shared parser, null if not started.
+	 */
+	private static CompletableFuture<NLParser> shared = null;
 
+	final MaxentTagger tagger;
+	final DependencyParser parser;
+	private final LRUCache<String, Dependencies> cache = new LRUCache<String, Dependencies>(CACHE_SIZE);
+	
+	/**
+	 * Words, POS tags and dependencies of a parsed sentence, without the labels
+	 * of the dependencies. Words and tags are numbered from 1, 0 is the root.
+	 */
+	static final class Dependencies implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final String[] words;
+		final String[] tags;
+		/**
+		 * Governor and dependent of each dependency, in the order of the parser.
+		 */
+		final int[] governors;
+		final int[] dependents;
+		
+		Dependencies(String[] words, String[] tags, int[] governors, int[] dependents) {
+			this.words = words;
+			this.tags = tags;
+			this.governors = governors;
+			this.dependents = dependents;
+		}
+	}
+
+	/**
+	 * Load the tagger and the parser model, each in its own thread.
+	 */
 	public NLParser() {
-		String taggerPath = "edu/stanford/nlp/models/pos-tagger/english-left3words/english-left3words-distsim.tagger";
-		String modelPath = DependencyParser.DEFAULT_MODEL;
-		tagger = new MaxentTagger(taggerPath);
-		parser = DependencyParser.loadFromModelFile(modelPath);
+		CompletableFuture<MaxentTagger> taggerLoading = CompletableFuture.supplyAsync(() -> new MaxentTagger(TAGGER_PATH));
+		parser = DependencyParser.loadFromModelFile(DependencyParser.DEFAULT_MODEL);
+		tagger = join(taggerLoading);
 	}
-	
+
+	/**
+	 * Start loading and warming up the shared parser in a background thread,
+	 * unless it is loading or loaded. Loading is started again if it failed.
+	 * @return the loading of the shared parser
+	 */
+	public static synchronized CompletableFuture<NLParser> preload() {
+		if (shared == null || shared.isCompletedExceptionally()) {
+			CompletableFuture<NLParser> loading = new CompletableFuture<NLParser>();
+			Thread loader = new Thread(() -> {
+				try {
+					NLParser nlParser = new NLParser();
+					nlParser.warmup();
+					loading.complete(nlParser);
+				} catch (Throwable e) {
+					loading.completeExceptionally(e);
+				}
+			}, "NLParser loader");
+			loader.setDaemon(true);
+			loader.start();
+			shared = loading;
+		}
+		return shared;
+	}
+
+	/**
+	 * Return the shared parser, waiting until it is loaded and warmed up.
+	 * @return
+	 */
+	public static NLParser getInstance() {
+		return join(preload());
+	}
+
+	/**
+	 * Parse one question.
+	 * @param question
+	 * @return
+	 */
+	public ParseTree parse(String question) {
+		return new ParseTree(question, this);
+	}
+
+	/**
+	 * Return the dependencies of the first sentence of the text, from the cache
+	 * if the same normalized text was parsed before.
+	 * @param text
+	 * @return
+	 */
+	Dependencies parseDependencies(String text) {
+		String key = normalize(text);
+		Dependencies parsed = cache.get(key);
+		if (parsed == null) {
+			parsed = tagAndParse(text);
+			cache.put(key, parsed);
+		}
+		return parsed;
+	}
+
+	/**
+	 * Text as a cache key: Unicode NFC with runs of white space replaced by one
+	 * space and no leading or trailing space. Case and punctuation are kept
+	 * since they change the tags and the tokens.
+	 */
+	static String normalize(String text) {
+		return Normalizer.normalize(text, Normalizer.Form.NFC).trim().replaceAll("\\s+", " ");
+	}
+
+	/**
+	 * Tokenize, tag and parse the first sentence of the text.
+	 */
+	private Dependencies tagAndParse(String text) {
+		// pre-processing the input text
+		DocumentPreprocessor tokenizer = new DocumentPreprocessor(new StringReader(text));
+		List<HasWord> sentence = null;
+		for (List<HasWord> sentenceHasWord : tokenizer) {
+			sentence = sentenceHasWord;
+			break;
+		}
+		// part-of-speech tagging
+		List<TaggedWord> tagged = tagger.tagSentence(sentence);
+		// dependency syntax parsing
+		GrammaticalStructure gs = parser.predict(tagged);
+		
+		String[] words = new String[sentence.size()];
+		String[] tags = new String[sentence.size()];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = sentence.get(i).word();
+			tags[i] = tagged.get(i).tag();
+		}
+		List<TypedDependency> typedDeps = new ArrayList<TypedDependency>(gs.allTypedDependencies());
+		int[] governors = new int[typedDeps.size()];
+		int[] dependents = new int[typedDeps.size()];
+		for (int i = 0; i < governors.length; i++) {
+			governors[i] = typedDeps.get(i).gov().index();
+			dependents[i] = typedDeps.get(i).dep().index();
+		}
+		return new Dependencies(words, tags, governors, dependents);
+	}
+
+	/**
+	 * Hits, misses and evictions of the cache of parsed questions.
+	 */
+	public String getCacheStats() {
+		return cache.toString();
+	}
+
+	/**
+	 * Add the parsed questions saved in the file to the cache. Nothing is read
+	 * from a missing file or a file of another version.
+	 * @param file
+	 * @return number of questions read
+	 */
+	@SuppressWarnings("unchecked")
+	public int readCache(File file) {
+		if (!file.exists()) { return 0; }
+		try (ObjectInputStream in = new ObjectInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != CACHE_VERSION || !modelId().equals(in.readUTF())) {
+				System.out.println("Ignoring parse cache "+file+" of other models");
+				return 0;
+			}
+			Map<String, Dependencies> saved = (Map<String, Dependencies>) in.readObject();
+			for (Map.Entry<String, Dependencies> e : saved.entrySet()) {
+				cache.put(e.getKey(), e.getValue());
+			}
+			System.out.println(saved.size()+" parsed questions read from "+file);
+			return saved.size();
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			System.out.println("Cannot read parse cache "+file+": "+e);
+			return 0;
+		}
+	}
+
+	/**
+	 * Save the cached parsed questions to the file, least recently used first.
+	 * @param file
+	 */
+	public void writeCache(File file) {
+		File tmp = new File(file.getPath()+".tmp");
+		try (ObjectOutputStream out = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(CACHE_VERSION);
+			out.writeUTF(modelId());
+			out.writeObject(cache.snapshot());
+		} catch (IOException e) {
+			System.out.println("Cannot write parse cache "+file+": "+e);
+			tmp.delete();
+			return;
+		}
+		file.delete();
+		if (!tmp.renameTo(file)) {
+			System.out.println("Cannot rename "+tmp+" to "+file);
+		}
+	}
+
+	/**
+	 * Models the cached dependencies were parsed with.
+	 */
+	private static String modelId() {
+		return TAGGER_PATH+"|"+DependencyParser.DEFAULT_MODEL;
+	}
+
+	/**
+	 * Parse the questions with one thread per available processor.
+	 * @param questions
+	 * @return parse trees in the order of the questions
+	 */
+	public List<ParseTree> parse(List<String> questions) {
+		return parse(questions, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Parse the questions in parallel, each question tagged and parsed by one
+	 * of the threads with the models shared by all of them.
+	 * @param questions
+	 * @param parallelism number of threads
+	 * @return parse trees in the order of the questions
+	 */
+	public List<ParseTree> parse(List<String> questions, int parallelism) {
+		List<ParseTree> trees = new ArrayList<ParseTree>(questions.size());
+		if (questions.isEmpty()) { return trees; }
+		List<Future<ParseTree>> futures = new ArrayList<Future<ParseTree>>(questions.size());
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, questions.size())));
+		try {
+			for (String question : questions) {
+				futures.add(executor.submit(() -> parse(question)));
+			}
+			for (Future<ParseTree> future : futures) {
+				trees.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while parsing", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); }
+			if (e.getCause() instanceof Error) { throw (Error) e.getCause(); }
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return trees;
+	}
+
+	/**
+	 * Parse a few representative questions several times, so that the first
+	 * question of a user does not pay for class loading and JIT compilation.
+	 * The cache is bypassed, so every round runs the tagger and the parser.
+	 */
+	public void warmup() {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			for (String question : WARMUP_QUESTIONS) {
+				new ParseTree(tagAndParse(question));
+			}
+		}
+		System.out.println("NLParser warmed up in "+(System.currentTimeMillis()-start)+" ms.");
+	}
+
+	/**
+	 * Wait for a loading, rethrowing its RuntimeException or Error.
+	 */
+	private static <T> T join(CompletableFuture<T> loading) {
+		try {
+			return loading.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); }
+			if (e.getCause() instanceof Error) { throw (Error) e.getCause(); }
+			throw e;
+		}
+	}
+
 }
@@ -1,8 +1,10 @@
 package model;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Interface for a parse tree node.
@@ -19,6 +21,8 @@ public class Node {
 	private int index = 0;
 	/**
 	 * Information indicating the corresponding SQL component of the Node.
+	 * Assigning it directly after the node is hashed leaves a stale hash,
+	 * use {@link #setInfo(NodeInfo)}.
 	 */
 	NodeInfo info = null;
 	/**
@@ -33,16 +37,29 @@ public class Node {
 	
 	/**
 	 * Parent of the node can be directly modified by ParseTree.
+	 * A change of the node clears the cached hashes and counts of its ancestors through it.
 	 */
 	Node parent = null; // package private
 	/**
 	 * Children of the node can be directly modified by ParseTree.
+	 * Any change clears the cached hashes and counts of this node and its ancestors.
 	 */
-	List<Node> children = new ArrayList<Node>(); // package private
+	final List<Node> children = new Children(); // package private
 	
 	//for testing purpose
 	boolean isInvalid = false;
 	
+	/**
+	 * Whether hash and fingerprint of the subtree are computed and up to date.
+	 */
+	private boolean hashed = false;
+	private int hash;
+	private long fingerprint;
+	/**
+	 * Number of invalid nodes below this node, -1 if not computed or out of date.
+	 */
+	private int invalidBelow = -1;
+	
 	public Node(int index, String word, String posTag){
 		this(index, word, posTag, null);
 	}
@@ -74,10 +91,17 @@ public class Node {
 	}
 	
 
+	public int getIndex() { return index; }
 	public NodeInfo getInfo() { return info; }
-	public void setInfo(NodeInfo info) { this.info = info; }
+	public void setInfo(NodeInfo info) {
+		this.info = info;
+		invalidate();
+	}
 	public String getWord() { return word; }
-	public void setWord(String word) {this.word = word;}
+	public void setWord(String word) {
+		this.word = word;
+		invalidate();
+	}
 	public String getPosTag() { return posTag; }
 	public List<Node> getChildren() { return children; }
 	public void setChild(Node child) {this.children.add(child);}
@@ -134,26 +158,92 @@ public class Node {
 	}
 	
 	/**
-	 * Only includes posTag, word, info, and children.
-	 * Return the hashCode of the tree represented by this node. 
+	 * Clear the cached hashes and counts of this node and its ancestors.
+	 * Each is computed over the whole subtree, so an ancestor of a node
+	 * without cached hashes or counts has none either.
 	 */
-	@Override
-	public int hashCode() { // exclude parent.
+	private void invalidate() {
+		for (Node node = this; node != null && (node.hashed || node.invalidBelow >= 0); node = node.parent) {
+			node.hashed = false;
+			node.invalidBelow = -1;
+		}
+	}
+	
+	/**
+	 * Compute hash and fingerprint from those of the children, which are
+	 * cached until the subtree changes.
+	 */
+	private void computeHashes() {
 		final int prime = 31;
 		int result = 17;
 		result = prime * result + index;
 		result = prime * result + ((posTag == null) ? 0 : posTag.hashCode());
 		result = prime * result + ((word == null) ? 0 : word.hashCode());
 		result = prime * result + ((info == null) ? 0 : info.hashCode());
-		if (children != null) {
+		long[] childFingerprints = new long[children.size()];
+		for (int i = 0; i < childFingerprints.length; i++) {
+			Node child = children.get(i);
+			result = prime * result + child.hashCode();
+			childFingerprints[i] = child.fingerprint();
+		}
+		hash = result;
+		fingerprint = Fingerprint.of(index, word, posTag, info, childFingerprints);
+		hashed = true;
+	}
+	
+	/**
+	 * Only includes posTag, word, info, and children.
+	 * Return the hashCode of the tree represented by this node. 
+	 */
+	@Override
+	public int hashCode() { // exclude parent.
+		if (!hashed) { computeHashes(); }
+		return hash;
+	}
+	
+	/**
+	 * 64-bit fingerprint of the tree represented by this node, over the
+	 * same fields as {@link #equals(Object)}. Equal trees have equal fingerprints.
+	 * It is cached until the node or a descendant changes.
+	 */
+	public long fingerprint() {
+		if (!hashed) { computeHashes(); }
+		return fingerprint;
+	}
+
+	/**
+	 * Number of invalid nodes of the tree of this node, as counted by
+	 * {@link SyntacticEvaluator#numberOfInvalidNodes(ParseTree)} but without marking them.
+	 * The count below each node is cached like the hashes, so after an edit
+	 * only the changed nodes and their ancestors are checked again.
+	 */
+	int numberOfInvalidNodes() {
+		NodeType parentType = parent == null ? null : parent.info.getNodeType();
+		return SyntacticEvaluator.check(info.getNodeType(), parentType, getChildTypes()) + numberOfInvalidNodesBelow();
+	}
+	
+	private int numberOfInvalidNodesBelow() {
+		if (invalidBelow < 0) {
+			NodeType type = info.getNodeType();
+			int numOfInvalid = 0;
 			for (Node child : children) {
-				result = prime * result + child.hashCode();	
+				numOfInvalid = numOfInvalid + SyntacticEvaluator.check(child.info.getNodeType(), type, child.getChildTypes())
+						+ child.numberOfInvalidNodesBelow();
 			}
+			invalidBelow = numOfInvalid;
 		}
-
-		return result;
+		return invalidBelow;
 	}
-
+	
+	/**
+	 * Return the types of the children, for {@link SyntacticEvaluator}.
+	 */
+	NodeType[] getChildTypes() {
+		NodeType[] types = new NodeType[children.size()];
+		for (int i = 0; i < types.length; i++) { types[i] = children.get(i).info.getNodeType(); }
+		return types;
+	}
+	
 	/**
 	 * Only considers word, posTag, info, and children (recursively).
 	 * See whether two trees represented by two nodes are equal.
@@ -164,15 +254,12 @@ public class Node {
 		if (obj == null) { return false; }
 		if (getClass() != obj.getClass()) { return false; }
 		Node other = (Node) obj;
+		if (fingerprint() != other.fingerprint()) { return false; }
 		if (index != other.index) { return false; }
-		if (!word.equals(other.word)) { return false; }
-		if (!posTag.equals(other.posTag)) { return false; }
-		if (info != other.info) {
-			if (info == null || other.info == null) { return false; }
-			if (!info.equals(other.info)) { return false; }
-		}
+		if (!Objects.equals(word, other.word)) { return false; }
+		if (!Objects.equals(posTag, other.posTag)) { return false; }
+		if (!Objects.equals(info, other.info)) { return false; }
 		if (children != other.children) {
-			if (children == null || other.children == null) { return false; }
 			if (children.size() != other.children.size()) { return false; }
 			for (int i = 0; i < children.size(); i++) {
 				if (!children.get(i).equals(other.children.get(i))) { return false; }	
@@ -188,4 +275,37 @@ public class Node {
 		}
 		return s;
 	}
+	
+	/**
+	 * Children list that clears the cached hashes on every change.
+	 */
+	private final class Children extends AbstractList<Node> {
+		private final ArrayList<Node> list = new ArrayList<Node>();
+		
+		@Override
+		public Node get(int i) { return list.get(i); }
+		
+		@Override
+		public int size() { return list.size(); }
+		
+		@Override
+		public Node set(int i, Node child) {
+			invalidate();
+			return list.set(i, child);
+		}
+		
+		@Override
+		public void add(int i, Node child) {
+			invalidate();
+			modCount++;
+			list.add(i, child);
+		}
+		
+		@Override
+		public Node remove(int i) {
+			invalidate();
+			modCount++;
+			return list.remove(i);
+		}
+	}
 }
@@ -1,6 +1,7 @@
 package model;
 
 import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Immutable class indicating the SQL component for a Node.
@@ -10,14 +11,20 @@ import java.util.Comparator;
 public class NodeInfo {
 	// TODO: all fields should be private in final version.
 	private String type; 
+	private NodeType nodeType;
 	private String value;
 	/**
 	 * Similarity score of the Node to the column/table name in schema.
 	 */
 	private double score = 1.0;
+	/**
+	 * Interned infos with the default score, see {@link #of(String, String)}.
+	 */
+	private static final ConcurrentHashMap<NodeInfo, NodeInfo> POOL = new ConcurrentHashMap<NodeInfo, NodeInfo>();
 	
 	public NodeInfo(String type, String value) {
 		this.type = type;
+		this.nodeType = NodeType.of(type);
 		this.value = value;
 	}
 	public NodeInfo(String type, String value, double score) {
@@ -26,6 +33,7 @@ public class NodeInfo {
 	}
 	public NodeInfo(NodeInfo ni){
 		this.type = ni.type;
+		this.nodeType = ni.nodeType;
 		this.value = ni.value;
 		this.score = ni.score;
 	}
@@ -33,7 +41,20 @@ public class NodeInfo {
 	public String toString() {
 		return type+": "+value;
 	}
+	/**
+	 * Return the shared info of the type and value with the default score.
+	 * Infos are immutable, so nodes and copied trees can share one instance.
+	 * @param type
+	 * @param value
+	 * @return
+	 */
+	public static NodeInfo of(String type, String value) {
+		NodeInfo info = new NodeInfo(type, value);
+		NodeInfo interned = POOL.putIfAbsent(info, info);
+		return interned == null ? info : interned;
+	}
 	public String getType() { return type; }
+	public NodeType getNodeType() { return nodeType; }
 	public String getValue() {
 		return value;
 	}
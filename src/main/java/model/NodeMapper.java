@@ -3,10 +3,8 @@ package model;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * A class to help map word {@link Node} in {@link ParseTree}
@@ -31,30 +29,30 @@ public class NodeMapper {
 	public NodeMapper() throws Exception {
 		wordNet = new WordNet();
 		map = new HashMap<String, NodeInfo>();
-		map.put("return", new NodeInfo("SN", "SELECT")); // Select Node
+		map.put("return", NodeInfo.of("SN", "SELECT")); // Select Node
 		
-		map.put("equals", new NodeInfo("ON", "="));		 // Operator Node
-		map.put("less",    new NodeInfo("ON", "<"));
-		map.put("greater",    new NodeInfo("ON", ">"));
-		map.put("not",    new NodeInfo("ON", "!="));    //TODO: not is a operator node or logic node?
-		map.put("before", new NodeInfo("ON", "<"));
-		map.put("after", new NodeInfo("ON", ">"));
-		map.put("more",    new NodeInfo("ON", ">"));
-		map.put("older",    new NodeInfo("ON", ">"));
-		map.put("newer", new NodeInfo("ON", "<"));
+		map.put("equals", NodeInfo.of("ON", "="));		 // Operator Node
+		map.put("less",    NodeInfo.of("ON", "<"));
+		map.put("greater",    NodeInfo.of("ON", ">"));
+		map.put("not",    NodeInfo.of("ON", "!="));    //TODO: not is a operator node or logic node?
+		map.put("before", NodeInfo.of("ON", "<"));
+		map.put("after", NodeInfo.of("ON", ">"));
+		map.put("more",    NodeInfo.of("ON", ">"));
+		map.put("older",    NodeInfo.of("ON", ">"));
+		map.put("newer", NodeInfo.of("ON", "<"));
 		
-		map.put("fn",     new NodeInfo("FN", "AVG"));	 // Function Node
-		map.put("average",     new NodeInfo("FN", "AVG"));
-		map.put("most",     new NodeInfo("FN", "MAX"));
-		map.put("total",     new NodeInfo("FN", "SUM"));
-		map.put("number", new NodeInfo("FN","COUNT"));
+		map.put("fn",     NodeInfo.of("FN", "AVG"));	 // Function Node
+		map.put("average",     NodeInfo.of("FN", "AVG"));
+		map.put("most",     NodeInfo.of("FN", "MAX"));
+		map.put("total",     NodeInfo.of("FN", "SUM"));
+		map.put("number", NodeInfo.of("FN","COUNT"));
 
-		map.put("all",    new NodeInfo("QN", "ALL"));	 // Quantifier Node
-		map.put("any",    new NodeInfo("QN", "ANY"));
-		map.put("each",    new NodeInfo("QN", "EACH"));
+		map.put("all",    NodeInfo.of("QN", "ALL"));	 // Quantifier Node
+		map.put("any",    NodeInfo.of("QN", "ANY"));
+		map.put("each",    NodeInfo.of("QN", "EACH"));
 		
-		map.put("and",    new NodeInfo("LN", "AND"));	 // Logic Node
-		map.put("or",    new NodeInfo("LN", "OR"));
+		map.put("and",    NodeInfo.of("LN", "AND"));	 // Logic Node
+		map.put("or",    NodeInfo.of("LN", "OR"));
 		
 
 	}
@@ -76,10 +74,10 @@ public class NodeMapper {
 	public List<NodeInfo> getNodeInfoChoices(Node node, SchemaGraph schema) {
 		List<NodeInfo> result = new ArrayList<NodeInfo>();   //final output
 		if (node.getWord().equals("ROOT")) {
-			result.add(new NodeInfo("ROOT", "ROOT"));
+			result.add(NodeInfo.of("ROOT", "ROOT"));
 			return result;
 		}
-		Set<NodeInfo> valueNodes = new HashSet<NodeInfo>();  //used to store (type, value, score) of 100 sample values for every column in every table
+		Map<String, NodeInfo> valueNodes = new HashMap<String, NodeInfo>();  //column, best value node of that column
 		String word = node.getWord().toLowerCase(); // all words as lower case
 		
 		if (map.containsKey(word)) {
@@ -93,21 +91,23 @@ public class NodeMapper {
 			for (String colName : schema.getColumns(tableName)) {
 				result.add(new NodeInfo("NN", tableName+"."+colName,
 						WordSimilarity.getSimilarity(word, colName, wordNet)));    //map name nodes (attribute names)
-				for (String value : schema.getValues(tableName, colName)) {
-					if (word == null || value == null) {
-						System.out.println("Comparing "+word+" and "+value);
-						System.out.println("In table "+tableName+", column "+colName);
-					}
-					valueNodes.add(new NodeInfo("VN", tableName+"."+colName,
-							WordSimilarity.getSimilarity(word, value, wordNet)));    //add every sample value into valueNodes
-				}
+			}
+		}
+		
+		// only score the sample values sharing enough trigrams with the word
+		for (ValueIndex.Entry candidate : schema.getValueIndex().getCandidates(word)) {
+			String column = candidate.getTable()+"."+candidate.getColumn();
+			double score = WordSimilarity.getSimilarity(word, candidate.getValue(), wordNet);
+			NodeInfo best = valueNodes.get(column);
+			if (best == null || best.getScore() < score) {
+				valueNodes.put(column, new NodeInfo("VN", column, score));
 			}
 		}
 		
 		//map value nodes (table values), to get the value node with highest similarity, add its (type, value, score) into result
 		// we want all candidates, not only the one with the highest similarity
-		result.addAll(valueNodes);
-		result.add(new NodeInfo("UNKNOWN", "meaningless", 1.0));
+		result.addAll(valueNodes.values());
+		result.add(NodeInfo.of("UNKNOWN", "meaningless"));
 		Collections.sort(result, new NodeInfo.ReverseScoreComparator());
 		return result;
 	}
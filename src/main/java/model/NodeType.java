@@ -0,0 +1,38 @@
+package model;
+
+/**
+ * Type of the SQL component of a Node, see {@link NodeInfo#getNodeType()}.
+ * Types are compared by reference instead of comparing their names.
+ * @author keping
+ *
+ */
+public enum NodeType {
+	/** root of the tree */
+	ROOT,
+	/** select node */
+	SN,
+	/** operator node */
+	ON,
+	/** name node, a table or a column */
+	NN,
+	/** value node */
+	VN,
+	/** function node */
+	FN,
+	/** quantifier node */
+	QN,
+	/** logic node */
+	LN,
+	/** meaningless node, removed before adjusting the tree */
+	UNKNOWN;
+
+	/**
+	 * Type of the name, null for null.
+	 * @param name
+	 * @return
+	 * @throws IllegalArgumentException if no type has the name
+	 */
+	public static NodeType of(String name) {
+		return name == null ? null : valueOf(name);
+	}
+}
@@ -1,17 +1,11 @@
 package model;
 
-import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
-import edu.stanford.nlp.ling.HasWord;
-import edu.stanford.nlp.ling.TaggedWord;
-import edu.stanford.nlp.process.DocumentPreprocessor;
-import edu.stanford.nlp.trees.GrammaticalStructure;
-import edu.stanford.nlp.trees.TypedDependency;
 
 public class ParseTree implements IParseTree {
 	
@@ -33,34 +27,28 @@ public class ParseTree implements IParseTree {
 	/**
 	 * Construct a parse tree using the stanford NLP parser. Only one sentence.
 	 * Here we are omitting the information of dependency labels (tags).
+	 * A question parsed before is read from the cache of the parser.
 	 * @param text input text.
 	 */
 	public ParseTree(String text, NLParser parser) {
-		// pre-processing the input text
-		DocumentPreprocessor tokenizer = new DocumentPreprocessor(new StringReader(text));
-		List<HasWord> sentence = null;
-		for (List<HasWord> sentenceHasWord : tokenizer) {
-			sentence = sentenceHasWord;
-			break;
-		}
-		// part-of-speech tagging
-		List<TaggedWord> tagged = parser.tagger.tagSentence(sentence);
-		// dependency syntax parsing
-		GrammaticalStructure gs = parser.parser.predict(tagged);
-		
-		// Reading the parsed sentence into ParseTree
-		int N = sentence.size()+1;
+		this(parser.parseDependencies(text));
+	}
+	
+	/**
+	 * Construct a parse tree from the dependencies of a sentence.
+	 * @param parsed
+	 */
+	ParseTree(NLParser.Dependencies parsed) {
+		int N = parsed.words.length+1;
 		Node[] nodes = new Node[N];
 		root = new Node(0, "ROOT", "ROOT");
 		nodes[0] = root;
 		for (int i = 0; i < N-1; i++) {
-			nodes[i+1] = new Node(i+1, 
-					sentence.get(i).word(), tagged.get(i).tag());
+			nodes[i+1] = new Node(i+1, parsed.words[i], parsed.tags[i]);
 		}
-		for (TypedDependency typedDep : gs.allTypedDependencies()) {
-			int from = typedDep.gov().index();
-			int to   = typedDep.dep().index();
-			// String label = typedDep.reln().getShortName(); // omitting the label
+		for (int i = 0; i < parsed.governors.length; i++) {
+			int from = parsed.governors[i];
+			int to   = parsed.dependents[i];
 			nodes[to].parent = nodes[from];
 			nodes[from].children.add(nodes[to]);
 		}
@@ -99,7 +87,7 @@ public class ParseTree implements IParseTree {
 		for (Node child : currChildren) {
 			removeMeaninglessNodes(child);
 		}
-		if (curr != root && curr.getInfo().getType().equals("UNKNOWN")) {
+		if (curr != root && curr.getInfo().getNodeType() == NodeType.UNKNOWN) {
 			curr.parent.getChildren().remove(curr);
 			for (Node child : curr.getChildren()) {
 				curr.parent.getChildren().add(child);
@@ -143,7 +131,7 @@ public class ParseTree implements IParseTree {
 		int IndexOfSN = 0;
 		for (int i = 0; i < childrenOfRoot.size(); i ++) {
 			
-			if (childrenOfRoot.get(i).getInfo().getType().equals("SN")) {
+			if (childrenOfRoot.get(i).getInfo().getNodeType() == NodeType.SN) {
 				
 				IndexOfSN = i;
 				break;
@@ -160,7 +148,7 @@ public class ParseTree implements IParseTree {
 
 		for (int i = 0; i < SN_children.size(); i ++) {
 
-			if (SN_children.get(i).getInfo().getType().equals("NN")) {
+			if (SN_children.get(i).getInfo().getNodeType() == NodeType.NN) {
 
 				IndexOfSN_NN = i;
 				break;
@@ -243,7 +231,7 @@ public class ParseTree implements IParseTree {
 						if (doInsert) {
 
 							copy = nodes[indexOfLeftCoreNode].clone();
-							copy.children = new ArrayList<Node>();
+							copy.children.clear();
 							copy.setOutside(true);
 							
 							
@@ -255,7 +243,7 @@ public class ParseTree implements IParseTree {
 
 								for (int j = nodes.length - 1; j >  endOfLeftBranch(nodes); j --) {
 
-									if (nodes[j].getInfo().getType().equals("FN")) {
+									if (nodes[j].getInfo().getNodeType() == NodeType.FN) {
 
 										indexOfNewRightCN = j + 1;
 										insertAroundFN = true;
@@ -277,7 +265,7 @@ public class ParseTree implements IParseTree {
 								}
 
 								copy.setParent(nodes[indexOfNewRightCN - 1]);
-								nodes[indexOfNewRightCN - 1].children = new ArrayList<Node>();
+								nodes[indexOfNewRightCN - 1].children.clear();
 								nodes[indexOfNewRightCN - 1].setChild(copy); 
 							}
 
@@ -316,7 +304,7 @@ public class ParseTree implements IParseTree {
 							boolean found_NV = false;
 
 							Node curr_left = NV_children_left.get(j);
-							String curr_left_type = curr_left.getInfo().getType();
+							NodeType curr_left_type = curr_left.getInfo().getNodeType();
 
 							for (int k = 0; k < NV_children_right.size(); k ++) {
 
@@ -326,7 +314,7 @@ public class ParseTree implements IParseTree {
 
 								//strictly compare, exact match ON
 
-								if (curr_left_type.equals("ON")) {
+								if (curr_left_type == NodeType.ON) {
 
 									if (curr_left.equals(curr_right)) {
 
@@ -368,7 +356,7 @@ public class ParseTree implements IParseTree {
 
 						for (int j = indexOfLeftCoreNode; j > 0; j --) {
 
-							if (nodes_final_temp[j].getInfo().getType().equals("FN")) {
+							if (nodes_final_temp[j].getInfo().getNodeType() == NodeType.FN) {
 
 								indexOfLeftFN_Tail = j;
 								break;
@@ -397,7 +385,7 @@ public class ParseTree implements IParseTree {
 								if(!found_FN) {
 									copy = nodes_final[k].clone();
 									copy.setOutside(true);
-									copy.children = new ArrayList<Node>();
+									copy.children.clear();
 
 									nodes[0].removeChild(nodes_final[endOfLeftBranch(nodes_final) + 1]);
 									nodes[0].setChild(copy);
@@ -424,7 +412,7 @@ public class ParseTree implements IParseTree {
 
 		for (int i = endOfLeftBranch(nodes) + 1; i < nodes.length; i ++) {
 
-			if (nodes[i].getInfo().getType().equals("NN")) {
+			if (nodes[i].getInfo().getNodeType() == NodeType.NN) {
 
 				return i;
 			}
@@ -441,7 +429,7 @@ public class ParseTree implements IParseTree {
 
 		for (int i = endOfLeftBranch(nodes); i > 0; i --) {
 
-			if (nodes[i].getInfo().getType().equals("NN")) {
+			if (nodes[i].getInfo().getNodeType() == NodeType.NN) {
 
 				return i;
 			}
@@ -498,7 +486,7 @@ public class ParseTree implements IParseTree {
 
 		for (int i = startIndex; i <= endIndex; i ++) {
 
-			if (nodes[i].getInfo().getType().equals("NN")) {
+			if (nodes[i].getInfo().getNodeType() == NodeType.NN) {
 
 				return i;
 			}
@@ -512,7 +500,7 @@ public class ParseTree implements IParseTree {
 	public ParseTree mergeLNQN(){   
 		Node[] nodes = this.root.genNodesArray();
 		for (int i=0; i<this.size(); i++){
-			if (nodes[i].getInfo().getType().equals("LN") || nodes[i].getInfo().getType().equals("QN")){
+			if (nodes[i].getInfo().getNodeType() == NodeType.LN || nodes[i].getInfo().getNodeType() == NodeType.QN){
 				String word = "("+nodes[i].getWord()+")";
 				String parentWord = nodes[i].getParent().getWord()+word;
 				nodes[i].getParent().setWord(parentWord);
@@ -534,7 +522,7 @@ public class ParseTree implements IParseTree {
 	public ParseTree addON(){
 		Node root = this.root.clone();
 		Node on = new Node (0,"equals", "postag");
-		on.info = new NodeInfo ("ON", "=");
+		on.setInfo(NodeInfo.of("ON", "="));
 		root.setChild(on);
 		on.setParent(root);	
 		ParseTree tree = new ParseTree(root);
@@ -542,20 +530,14 @@ public class ParseTree implements IParseTree {
 	}
 
 	/**
-	 * For now, return the first three trees for choices.
+	 * Return the best four trees for choices, found by the beam search of
+	 * {@link TreeAdjustor#getAdjustedTrees(ParseTree, int, int, ForkJoinPool)}
+	 * in the common pool.
 	 * First order on higher validity score, second order on lower edits.
 	 */
 	@Override
 	public List<ParseTree> getAdjustedTrees() {
-		List<ParseTree> result = TreeAdjustor.getAdjustedTrees(this);
-		Collections.sort(result, (t1, t2) -> {
-			if (t1.getScore() != t2.getScore()) {
-				return - t1.getScore() + t2.getScore();
-			} else {
-				return t1.getEdit() - t2.getEdit();
-			}
-		});
-		return result.subList(0, 4);
+		return TreeAdjustor.getAdjustedTrees(this, 4, TreeAdjustor.BEAM_WIDTH, ForkJoinPool.commonPool());
 	}	
 	
 	/**
@@ -573,6 +555,14 @@ public class ParseTree implements IParseTree {
 		return translator.getResult(); 
 	}
 
+	/**
+	 * 64-bit fingerprint of the tree, cached in the nodes, see {@link Node#fingerprint()}.
+	 * @return
+	 */
+	public long fingerprint() {
+		return root == null ? 0 : root.fingerprint();
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -682,10 +672,11 @@ public class ParseTree implements IParseTree {
 	/**
 	 * Score of a tree measures the syntactic legality of 
 	 * the tree. It is negative number of Invalid nodes.
+	 * The count is cached in the nodes until the tree changes.
 	 * @return
 	 */
 	public int getScore(){
-		return - SyntacticEvaluator.numberOfInvalidNodes(this);
+		return - root.numberOfInvalidNodes();
 	}
 	
 }
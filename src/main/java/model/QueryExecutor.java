@@ -0,0 +1,238 @@
+package model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Runs translated queries on the database, with connections borrowed from a
+ * {@link ConnectionPool}. Each query is a prepared statement whose parameters are
+ * the values of the query, see {@link SQLQuery#toPreparedSQL(List)}.</p>
+ * <p>Statements have a timeout, and run in a read-only transaction so that rows
+ * are fetched from the database a few at a time, through a cursor, while the
+ * handler reads them. Large results are better read with {@link #open(SQLQuery, int, Cancellation)},
+ * one chunk at a time. A query can be cancelled from another thread with the
+ * {@link Cancellation} it was run with.</p>
+ * @author keping
+ *
+ */
+public class QueryExecutor {
+	/**
+	 * Reads the result of a query. The result set is closed after it returns.
+	 * @param <T> what is read
+	 */
+	public interface ResultHandler<T> {
+		T handle(ResultSet rs) throws SQLException;
+	}
+
+	/**
+	 * The rows as text: a line with the labels of the columns, then a line per
+	 * row, with columns separated by tabs.
+	 */
+	public static final ResultHandler<String> TEXT = text(0);
+
+	/**
+	 * The rows as text like {@link #TEXT}, at most maxRows of them. If there are
+	 * more, a last line says the rows are truncated. Run the query with one more
+	 * row than maxRows to know.
+	 * @param maxRows maximum number of rows, 0 for all
+	 * @return the handler
+	 */
+	public static ResultHandler<String> text(int maxRows) {
+		return rs -> {
+			ResultSetMetaData meta = rs.getMetaData();
+			StringBuilder sb = new StringBuilder();
+			for (int i = 1; i <= meta.getColumnCount(); i++) {
+				sb.append(i > 1 ? "\t" : "").append(meta.getColumnLabel(i));
+			}
+			sb.append("\n");
+			for (int n = 0; rs.next(); n++) {
+				if (maxRows > 0 && n == maxRows) {
+					sb.append("TRUNCATED: first ").append(maxRows).append(" rows\n");
+					break;
+				}
+				for (int i = 1; i <= meta.getColumnCount(); i++) {
+					sb.append(i > 1 ? "\t" : "").append(rs.getString(i));
+				}
+				sb.append("\n");
+			}
+			return sb.toString();
+		};
+	}
+
+	/**
+	 * Cancels the query run with it, before or while it is run. One cancellation
+	 * can be used for several queries run one after the other, and cancels all
+	 * of them once cancelled.
+	 */
+	public static class Cancellation {
+		private boolean cancelled = false;
+		/**
+		 * Statement being run, or null.
+		 */
+		private PreparedStatement statement = null;
+
+		/**
+		 * Cancel the statement being run, and the ones run later.
+		 */
+		public synchronized void cancel() {
+			cancelled = true;
+			if (statement != null) {
+				try {
+					statement.cancel();
+				} catch (SQLException e) {
+					System.out.println("Cannot cancel query: "+e.getMessage());
+				}
+			}
+		}
+
+		public synchronized boolean isCancelled() { return cancelled; }
+
+		synchronized void start(PreparedStatement statement) throws SQLException {
+			if (cancelled) { throw new SQLException("Query cancelled"); }
+			this.statement = statement;
+		}
+
+		synchronized void finish() {
+			statement = null;
+		}
+	}
+
+	private final ConnectionPool pool;
+	/**
+	 * Timeout of each query in seconds, 0 for none.
+	 */
+	private final int queryTimeout;
+	/**
+	 * Number of rows fetched from the database at a time.
+	 */
+	private final int fetchSize;
+	/**
+	 * Maximum time to wait for a connection of the pool in milliseconds, 0 for no limit.
+	 */
+	private final long borrowTimeout;
+
+	/**
+	 * @param pool
+	 * @param queryTimeout timeout of each query in seconds, 0 for none
+	 * @param fetchSize number of rows fetched from the database at a time
+	 */
+	public QueryExecutor(ConnectionPool pool, int queryTimeout, int fetchSize) {
+		this(pool, queryTimeout, fetchSize, 0);
+	}
+
+	/**
+	 * @param pool
+	 * @param queryTimeout timeout of each query in seconds, 0 for none
+	 * @param fetchSize number of rows fetched from the database at a time
+	 * @param borrowTimeout maximum time to wait for a connection of the pool in milliseconds, 0 for no limit
+	 */
+	public QueryExecutor(ConnectionPool pool, int queryTimeout, int fetchSize, long borrowTimeout) {
+		this.pool = pool;
+		this.queryTimeout = queryTimeout;
+		this.fetchSize = fetchSize;
+		this.borrowTimeout = borrowTimeout;
+	}
+
+	/**
+	 * Run the query and read at most maxRows rows with the handler.
+	 * @param query an executable query
+	 * @param maxRows maximum number of rows, 0 for all
+	 * @param cancellation cancels the query from another thread, or null
+	 * @param handler reads the result
+	 * @return what the handler returns
+	 * @throws SQLTransientConnectionException if no connection of the pool is free within the borrow timeout
+	 * @throws SQLException if the query fails, times out or is cancelled
+	 * @throws IllegalStateException if the query is not executable
+	 */
+	public <T> T execute(SQLQuery query, int maxRows, Cancellation cancellation, ResultHandler<T> handler)
+			throws SQLException {
+		Connection c = pool.borrow(borrowTimeout, TimeUnit.MILLISECONDS);
+		try {
+			c.setAutoCommit(false);
+			c.setReadOnly(true);
+			try (PreparedStatement statement = prepare(c, query, maxRows, fetchSize)) {
+				if (cancellation != null) { cancellation.start(statement); }
+				try (ResultSet rs = statement.executeQuery()) {
+					return handler.handle(rs);
+				} finally {
+					if (cancellation != null) { cancellation.finish(); }
+				}
+			}
+		} finally {
+			endTransaction(c);
+			pool.release(c);
+		}
+	}
+
+	/**
+	 * Run the query and return a cursor over its rows, to be read chunk by chunk
+	 * and closed by the caller.
+	 * @param query an executable query
+	 * @param chunkSize number of rows fetched from the database and returned at a time
+	 * @param cancellation cancels the query from another thread until the cursor is closed, or null
+	 * @return
+	 * @throws SQLTransientConnectionException if no connection of the pool is free within the borrow timeout
+	 * @throws SQLException if the query fails, times out or is cancelled
+	 * @throws IllegalStateException if the query is not executable
+	 */
+	public ResultCursor open(SQLQuery query, int chunkSize, Cancellation cancellation) throws SQLException {
+		Connection c = pool.borrow(borrowTimeout, TimeUnit.MILLISECONDS);
+		PreparedStatement statement = null;
+		try {
+			c.setAutoCommit(false);
+			c.setReadOnly(true);
+			statement = prepare(c, query, 0, chunkSize);
+			if (cancellation != null) { cancellation.start(statement); }
+			return new ResultCursor(pool, c, statement, cancellation, statement.executeQuery(), chunkSize);
+		} catch (SQLException | RuntimeException e) {
+			if (cancellation != null) { cancellation.finish(); }
+			if (statement != null) { statement.close(); }
+			endTransaction(c);
+			pool.release(c);
+			throw e;
+		}
+	}
+
+	/**
+	 * Prepare the query with its values as parameters, to be read forward only.
+	 */
+	private PreparedStatement prepare(Connection c, SQLQuery query, int maxRows, int fetchSize)
+			throws SQLException {
+		List<Object> parameters = new ArrayList<Object>();
+		String sql = query.toPreparedSQL(parameters);
+		PreparedStatement statement = c.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+			for (int i = 0; i < parameters.size(); i++) {
+				statement.setObject(i+1, parameters.get(i));
+			}
+			statement.setQueryTimeout(queryTimeout);
+			statement.setFetchSize(fetchSize);
+			statement.setMaxRows(maxRows);
+		} catch (SQLException e) {
+			statement.close();
+			throw e;
+		}
+		return statement;
+	}
+
+	/**
+	 * End the read-only transaction of a query and go back to a writable
+	 * connection in auto-commit, before the connection is given back to the pool.
+	 */
+	static void endTransaction(Connection c) {
+		try {
+			c.rollback();
+			c.setAutoCommit(true);
+			c.setReadOnly(false);
+		} catch (SQLException e) {
+			System.out.println("Cannot end transaction: "+e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Rows of an executed query, read chunk by chunk. Opened by
+ * {@link QueryExecutor#open(SQLQuery, int, QueryExecutor.Cancellation)}.</p>
+ * <p>The query runs in a transaction with a fetch size of one chunk, so the
+ * database keeps a cursor and sends the next rows only when the next chunk is
+ * read: a consumer reading slowly slows down the query, and only one chunk is
+ * in memory at a time. The cursor holds a connection of the pool until it is
+ * closed, which may be before the last row.</p>
+ * @author keping
+ *
+ */
+public class ResultCursor implements AutoCloseable {
+	private final ConnectionPool pool;
+	private final Connection connection;
+	private final PreparedStatement statement;
+	private final QueryExecutor.Cancellation cancellation;
+	private final ResultSet rs;
+	private final List<String> columns;
+	private final int chunkSize;
+	private long rowCount = 0;
+	private boolean done = false;
+	private boolean closed = false;
+
+	ResultCursor(ConnectionPool pool, Connection connection, PreparedStatement statement,
+			QueryExecutor.Cancellation cancellation, ResultSet rs, int chunkSize) throws SQLException {
+		this.pool = pool;
+		this.connection = connection;
+		this.statement = statement;
+		this.cancellation = cancellation;
+		this.rs = rs;
+		this.chunkSize = chunkSize;
+		ResultSetMetaData meta = rs.getMetaData();
+		List<String> labels = new ArrayList<String>(meta.getColumnCount());
+		for (int i = 1; i <= meta.getColumnCount(); i++) {
+			labels.add(meta.getColumnLabel(i));
+		}
+		columns = Collections.unmodifiableList(labels);
+	}
+
+	/**
+	 * @return labels of the columns
+	 */
+	public List<String> getColumns() { return columns; }
+
+	/**
+	 * @return number of rows read so far
+	 */
+	public long getRowCount() { return rowCount; }
+
+	/**
+	 * @return whether the last row was read
+	 */
+	public boolean isDone() { return done; }
+
+	/**
+	 * Read the next rows, at most one chunk. The cursor is closed after the last row.
+	 * @return values of the rows by column, empty once all rows are read or the cursor is closed
+	 * @throws SQLException if reading fails, the cursor is then closed
+	 */
+	public synchronized List<Object[]> nextChunk() throws SQLException {
+		if (done || closed) { return Collections.emptyList(); }
+		List<Object[]> chunk = new ArrayList<Object[]>(chunkSize);
+		try {
+			while (chunk.size() < chunkSize) {
+				if (!rs.next()) {
+					done = true;
+					close();
+					break;
+				}
+				Object[] row = new Object[columns.size()];
+				for (int i = 0; i < row.length; i++) {
+					row[i] = rs.getObject(i+1);
+				}
+				chunk.add(row);
+			}
+		} catch (SQLException e) {
+			close();
+			throw e;
+		}
+		rowCount += chunk.size();
+		return chunk;
+	}
+
+	/**
+	 * Stop reading: close the cursor, end the transaction and give back the
+	 * connection. Nothing is done if already closed.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) { return; }
+		closed = true;
+		if (cancellation != null) { cancellation.finish(); }
+		try {
+			rs.close();
+			statement.close();
+		} catch (SQLException e) {
+			System.out.println("Cannot close cursor: "+e.getMessage());
+		}
+		QueryExecutor.endTransaction(connection);
+		pool.release(connection);
+	}
+}
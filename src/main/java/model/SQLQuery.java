@@ -8,12 +8,21 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * Just a wrapper for a String of sql query.
+ * <p>Just a wrapper for a String of sql query.</p>
+ * <p>Conditions on values are shown with the values inlined by {@link #toString()},
+ * and with the values as parameters by {@link #toPreparedSQL(List)}, so that the
+ * database can reuse the plan of the same query with other values.</p>
  * @author keping
  */
 public class SQLQuery {
 	private List<SQLQuery> blocks;
 	private Map<String, Collection<String>> map;
+	/**
+	 * For each condition on a value in WHERE, the condition with a parameter
+	 * instead of the value, and the value.
+	 */
+	private Map<String, String> preparedConditions;
+	private Map<String, Object> values;
 	
 	SQLQuery() {
 		map = new HashMap<>();
@@ -21,6 +30,8 @@ public class SQLQuery {
 		map.put("FROM", new HashSet<String>());
 		map.put("WHERE", new HashSet<String>());
 		blocks = new ArrayList<SQLQuery>();
+		preparedConditions = new HashMap<>();
+		values = new HashMap<>();
 	}
 
 	@Deprecated
@@ -41,6 +52,15 @@ public class SQLQuery {
 	
 	Collection<String> getCollection(String keyWord) { return map.get(keyWord); }
 	
+	/**
+	 * Whether the query can be run on the database: it has SELECT and FROM
+	 * and no nested blocks.
+	 * @return
+	 */
+	public boolean isExecutable() {
+		return !map.get("SELECT").isEmpty() && !map.get("FROM").isEmpty() && blocks.isEmpty();
+	}
+	
 	/**
 	 * Add (key, value) to the SQL Query.
 	 * For example, (SELECT, article.title) or (FROM, article).
@@ -52,6 +72,46 @@ public class SQLQuery {
 	}
 	
 	
+	/**
+	 * Add the condition (attribute operator value) to WHERE, where the value is
+	 * a parameter of the prepared query.
+	 * @param attribute
+	 * @param operator
+	 * @param value a String or a Number
+	 */
+	void addCondition(String attribute, String operator, Object value) {
+		String condition = attribute+" "+operator+" "+toLiteral(value);
+		add("WHERE", condition);
+		preparedConditions.put(condition, attribute+" "+operator+" ?");
+		values.put(condition, value);
+	}
+	
+	/**
+	 * SQL literal of a value: numbers as they are, strings quoted.
+	 */
+	private static String toLiteral(Object value) {
+		if (value instanceof Number) { return value.toString(); }
+		return "'"+value.toString().replace("'", "''")+"'";
+	}
+	
+	/**
+	 * Return the query with a parameter (?) for each value, and add the values
+	 * to the list in the order of the parameters.
+	 * @param parameters list to which the values are added
+	 * @return
+	 * @throws IllegalStateException if the query is not executable
+	 */
+	public String toPreparedSQL(List<Object> parameters) {
+		if (!isExecutable()) { throw new IllegalStateException("Query cannot be executed:\n"+this); }
+		StringBuilder sb = new StringBuilder();
+		sb.append("SELECT ").append(toSBLine(map.get("SELECT"))).append("\n");
+		sb.append("FROM ").append(toSBLine(map.get("FROM"))).append("\n");
+		if (!map.get("WHERE").isEmpty()) {
+			sb.append("WHERE ").append(toSBLineCondition(map.get("WHERE"), parameters)).append("\n");
+		}
+		return sb.toString();
+	}
+	
 	/**
 	 * Serve for the toString() method.
 	 * @param SELECT (or FROM)
@@ -76,8 +136,22 @@ public class SQLQuery {
 	 * @return
 	 */
 	private StringBuilder toSBLineCondition(Collection<String> WHERE) {
+		return toSBLineCondition(WHERE, null);
+	}
+	
+	/**
+	 * Like {@link #toSBLineCondition(Collection)}, with the conditions on values
+	 * as prepared conditions and their values added to the parameters, unless
+	 * parameters is null.
+	 */
+	private StringBuilder toSBLineCondition(Collection<String> WHERE, List<Object> parameters) {
 		StringBuilder sb = new StringBuilder();
-		for (String val : WHERE) {
+		for (String condition : WHERE) {
+			String val = condition;
+			if (parameters != null && preparedConditions.containsKey(condition)) {
+				val = preparedConditions.get(condition);
+				parameters.add(values.get(condition));
+			}
 			if (sb.length() == 0) {
 				sb.append(val);
 			} else {
@@ -1,6 +1,8 @@
 package model;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -59,21 +61,33 @@ public class SQLTranslator {
 	    return true;
 	}
 	
+	/**
+	 * Value of the word of a VN: a Long or a BigDecimal for a number, otherwise the word.
+	 */
+	private static Object toValue(String word) {
+		if (!isNumber(word)) { return word; }
+		try {
+			if (word.indexOf('.') < 0) { return Long.valueOf(word); }
+			return new BigDecimal(word);
+		} catch (NumberFormatException e) {
+			return word; // like 1.2.3 or too long
+		}
+	}
+	
 	private void translateCondition(Node node) {
 		String attribute = "ATTRIBUTE";
 		String compareSymbol = "=";
 		String value = "VALUE";
-		if (node.getInfo().getType().equals("VN")) {
+		if (node.getInfo().getNodeType() == NodeType.VN) {
 			attribute = node.getInfo().getValue();
 			value = node.getWord();
-		} else if (node.getInfo().getType().equals("ON")) {
+		} else if (node.getInfo().getNodeType() == NodeType.ON) {
 			compareSymbol = node.getInfo().getValue();
 			Node VN = node.getChildren().get(0);
 			attribute = VN.getInfo().getValue();
 			value = VN.getWord();
 		}
-		if (!isNumber(value)) { value = "\""+value+"\""; }
-		query.add("WHERE", attribute+" "+compareSymbol+" "+value);
+		query.addCondition(attribute, compareSymbol, toValue(value));
 		query.add("FROM", attribute.split("\\.")[0]);
 	}
 
@@ -81,7 +95,7 @@ public class SQLTranslator {
 		translateNN(node, "");
 	}
 	private void translateNN(Node node, String valueFN) {
-		if (!node.getInfo().getType().equals("NN")) { return; }
+		if (node.getInfo().getNodeType() != NodeType.NN) { return; }
 		if (!valueFN.equals("")) {
 			query.add("SELECT", valueFN+"("+node.getInfo().getValue()+")");
 		} else {
@@ -96,26 +110,26 @@ public class SQLTranslator {
 	private void translateNP(Node node, String valueFN) {
 		translateNN(node, valueFN);
 		for (Node child : node.getChildren()) {
-			if (child.getInfo().getType().equals("NN")) {
+			if (child.getInfo().getNodeType() == NodeType.NN) {
 				translateNN(child);
-			} else if (child.getInfo().getType().equals("ON") ||
-					child.getInfo().getType().equals("VN")){
+			} else if (child.getInfo().getNodeType() == NodeType.ON ||
+					child.getInfo().getNodeType() == NodeType.VN){
 				translateCondition(child);
 			}
 		}
 	}
 	
 	private void translateGNP(Node node) {
-		if (node.getInfo().getType().equals("FN")) {
+		if (node.getInfo().getNodeType() == NodeType.FN) {
 			if (node.getChildren().isEmpty()) { return; }
 			translateNP(node.getChildren().get(0), node.getInfo().getValue());
-		} else if (node.getInfo().getType().equals("NN")) {
+		} else if (node.getInfo().getNodeType() == NodeType.NN) {
 			translateNP(node);
 		}
 	}
 	
 	private void translateComplexCondition(Node node) {
-		if (!node.getInfo().getType().equals("ON")) { return; }
+		if (node.getInfo().getNodeType() != NodeType.ON) { return; }
 		if (node.getChildren().size() != 2) { return; }
 		SQLTranslator transLeft = new SQLTranslator(node.getChildren().get(0), schema, true);
 		SQLTranslator transRight= new SQLTranslator(node.getChildren().get(1), schema, true);
@@ -125,31 +139,55 @@ public class SQLTranslator {
 	}
 	
 	private void translateSClause(Node node) {
-		if (!node.getInfo().getType().equals("SN")) { return; }
+		if (node.getInfo().getNodeType() != NodeType.SN) { return; }
 		translateGNP(node.getChildren().get(0));
 	}
 	
 	private void addJoinKeys(String table1, String table2) {
-		Set<String> joinKeys = schema.getJoinKeys(table1, table2);
-		for (String joinKey : joinKeys) {
-			query.add("WHERE", table1+"."+joinKey+" = "+table2+"."+joinKey);
-		}
-	}
-	
-	private void addJoinPath(List<String> joinPath) {
-		for (int i = 0; i < joinPath.size()-1; i++) {
-			addJoinKeys(joinPath.get(i), joinPath.get(i+1));
+		for (String[] columns : schema.getJoinColumns(table1, table2)) {
+			query.add("WHERE", table1+"."+columns[0]+" = "+table2+"."+columns[1]);
 		}
 	}
 	
+	/**
+	 * <p>Join all tables in FROM with one approximate Steiner tree over the
+	 * schema graph, so that each join predicate is added once.</p>
+	 * <p>Starting from one table, repeatedly attach the remaining table closest
+	 * to the tree by its cheapest join path. Tables on the path are added to FROM.
+	 * Tables not in the schema (blocks) and tables not connected are left alone.</p>
+	 */
 	private void addJoinPath() {
-		List<String> fromTables = new ArrayList<String>(query.getCollection("FROM"));
-		if (fromTables.size() <= 1) { return; }
-		for (int i = 0; i < fromTables.size()-1; i++) {
-			for (int j = i+1; j < fromTables.size(); j++) {
-				List<String> joinPath = schema.getJoinPath(fromTables.get(i), fromTables.get(j));
-				addJoinPath(joinPath);
+		List<String> remaining = new ArrayList<String>();
+		for (String table : query.getCollection("FROM")) {
+			if (schema.containsTable(table)) { remaining.add(table); }
+		}
+		if (remaining.size() <= 1) { return; }
+		Set<String> tree = new LinkedHashSet<String>();
+		tree.add(remaining.remove(0));
+		while (!remaining.isEmpty()) {
+			String bestFrom = null;
+			String bestTo = null;
+			double bestCost = Double.POSITIVE_INFINITY;
+			for (String to : remaining) {
+				for (String from : tree) {
+					double cost = schema.getJoinCost(from, to);
+					if (cost >= 0 && cost < bestCost) {
+						bestCost = cost;
+						bestFrom = from;
+						bestTo = to;
+					}
+				}
+			}
+			if (bestTo == null) { return; } // the rest is not connected to the tree
+			List<String> joinPath = schema.getJoinPath(bestFrom, bestTo);
+			for (int i = 0; i < joinPath.size()-1; i++) {
+				String next = joinPath.get(i+1);
+				if (tree.add(next)) {
+					addJoinKeys(joinPath.get(i), next);
+					query.add("FROM", next);
+				}
 			}
+			remaining.removeAll(tree);
 		}
 	}
 
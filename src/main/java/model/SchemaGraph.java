@@ -1,22 +1,47 @@
 package model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.SQLTimeoutException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class SchemaGraph {
 	
+	/*
+	 * The fields below are written while the schema is read, by the constructor
+	 * and refresh(), which hold the lock. Readers only use the published state.
+	 */
+	
 	/**
 	 * table name, column name, column type
 	 */
@@ -26,18 +51,71 @@ public class SchemaGraph {
 	
 	/**
 	 * table name, primary key (set of column names).
-	 * Two tables are connected only if pubkey of table1 is a
-	 * column of table2, but NOT the pubkey of table2. Graph no direction.
 	 */
 	private Map<String, Set<String>> keys;
 	
 	/**
-	 * table1Name, table2Name
+	 * Foreign keys declared in the schema, sorted.
+	 */
+	private List<ForeignKey> foreignKeys;
+	
+	/**
+	 * table name, estimated number of rows (-1 if unknown).
+	 */
+	private Map<String, Long> tableSizes;
+	
+	/**
+	 * table1Name, table2Name, join columns as pairs {column of table1, column of table2}.
+	 * Tables are connected by the declared foreign keys. If the schema declares none,
+	 * two tables are connected only if pubkey of table1 is a
+	 * column of table2, but NOT the pubkey of table2. Graph no direction.
+	 */
+	private Map<String, Map<String, List<String[]>>> joinColumns;
+	
+	/**
+	 * What readers see of the schema, replaced as a whole by {@link #refresh()}.
+	 */
+	private volatile State state;
+	
+	/**
+	 * Number of values sampled from each column.
 	 */
-	private Map<String, Set<String>> connectivity;
+	private static final int SAMPLE_SIZE = 2000;
+	private static final int CACHE_VERSION = 2;
 	
 	/**
-	 * Construct a schemaGraph from database meta data.
+	 * Connections used for reading meta data and sampling values.
+	 */
+	private ConnectionPool pool;
+	/**
+	 * Number of columns sampled at the same time.
+	 */
+	private int parallelism;
+	/**
+	 * Timeout of each sampling query in seconds, 0 for no timeout.
+	 */
+	private int queryTimeout;
+	/**
+	 * Sampler used for tables not in {@link #tableSamplers}.
+	 */
+	private ValueSampler defaultSampler;
+	/**
+	 * table name, sampler used for its columns
+	 */
+	private Map<String, ValueSampler> tableSamplers;
+	/**
+	 * File caching table sizes and sampled values, null for no cache.
+	 */
+	private File cacheFile;
+	/**
+	 * Hash of the url, user, tables, columns, types, primary and foreign keys.
+	 * The cache is only used if its fingerprint equals this one.
+	 */
+	private String fingerprint;
+	
+	/**
+	 * Construct a schemaGraph from database meta data, using the default cache file
+	 * "schema_(database name).cache" in the working directory.
 	 * @see <a href="http://docs.oracle.com/javase/6/docs/api/java/sql/
 	 * DatabaseMetaData.html#getTables%28java.lang.String,%20java.lang.
 	 * String,%20java.lang.String,%20java.lang.String%5b%5d%29">document of getTables</a>
@@ -45,46 +123,250 @@ public class SchemaGraph {
 	 * @throws SQLException
 	 */
 	public SchemaGraph(Connection c) throws SQLException {
+		this(c, new File("schema_" + c.getCatalog() + ".cache"));
+	}
+	
+	/**
+	 * Construct a schemaGraph from database meta data, sampling one column at a time.
+	 * @param c
+	 * @param cacheFile cache file, or null to always read from the database
+	 * @throws SQLException
+	 */
+	public SchemaGraph(Connection c, File cacheFile) throws SQLException {
+		this(new ConnectionPool(c), cacheFile, 1, 0);
+	}
+	
+	/**
+	 * Construct a schemaGraph from database meta data, sampling all tables with
+	 * {@link ValueSampler.OrderByRandom}.
+	 * @see #SchemaGraph(ConnectionPool, File, int, int, ValueSampler, Map)
+	 */
+	public SchemaGraph(ConnectionPool pool, File cacheFile, int parallelism, int queryTimeout) throws SQLException {
+		this(pool, cacheFile, parallelism, queryTimeout, new ValueSampler.OrderByRandom(), new HashMap<>());
+	}
+	
+	/**
+	 * Construct a schemaGraph from database meta data. Sampled values and table sizes
+	 * are read from the cache file if it matches the current schema and samplers, otherwise
+	 * they are retrieved from the database and written to the cache file.
+	 * @param pool connections to the database, kept for {@link #refresh()}
+	 * @param cacheFile cache file, or null to always read from the database
+	 * @param parallelism number of columns sampled at the same time, at most the pool size
+	 * @param queryTimeout timeout of each sampling query in seconds, 0 for no timeout.
+	 * A column whose query times out has no sampled values.
+	 * @param defaultSampler sampler of the tables not in tableSamplers
+	 * @param tableSamplers table name, sampler of its columns
+	 * @throws SQLException
+	 */
+	public SchemaGraph(ConnectionPool pool, File cacheFile, int parallelism, int queryTimeout,
+			ValueSampler defaultSampler, Map<String, ValueSampler> tableSamplers) throws SQLException {
 		System.out.println("Retrieving schema graph...");
-		DatabaseMetaData meta = c.getMetaData();
+		this.pool = pool;
+		this.cacheFile = cacheFile;
+		this.parallelism = Math.max(1, Math.min(parallelism, pool.getMaxSize()));
+		this.queryTimeout = queryTimeout;
+		this.defaultSampler = defaultSampler;
+		this.tableSamplers = new HashMap<>(tableSamplers);
+		readMetaData();
+		if (!readCache()) {
+			sampleValues();
+			estimateTableSizes();
+			writeCache();
+		}
+		state = new State(this);
+		System.out.println("Schema graph retrieved.");
+	}
+	
+	/**
+	 * Read tables, columns, primary and foreign keys, find the join columns
+	 * and compute the fingerprint.
+	 */
+	private void readMetaData() throws SQLException {
+		Connection c = pool.borrow();
+		try {
+			DatabaseMetaData meta = c.getMetaData();
+			readTables(meta);
+			readPrimaryKeys(meta);
+			readForeignKeys(meta);
+			findConnectivity();
+			fingerprint = computeFingerprint(meta);
+		} finally {
+			pool.release(c);
+		}
+	}
+	
+	/**
+	 * Retrieve the sampled values and table sizes from the database again,
+	 * and overwrite the cache file. Use this when the data has changed
+	 * (the fingerprint only covers the schema). Until it returns, readers see
+	 * the old schema: each call sees either the old or the new one, never a mix.
+	 * @throws SQLException
+	 */
+	public synchronized void refresh() throws SQLException {
+		System.out.println("Refreshing schema graph...");
+		readMetaData();
+		sampleValues();
+		estimateTableSizes();
+		state = new State(this);
+		writeCache();
+		System.out.println("Schema graph refreshed.");
+	}
+	
+	/**
+	 * Read table names, column names and column types.
+	 */
+	private void readTables(DatabaseMetaData meta) throws SQLException {
 		tables = new HashMap<>();
-		tableRows = new HashMap<>();
 		String[] types = {"TABLE"};
 		ResultSet rsTable = meta.getTables(null, null, "%", types);
-		
-
-	    Statement stmt = c.createStatement();
 		while (rsTable.next()) {
 			String tableName = rsTable.getString("TABLE_NAME");
-			tables.put(tableName, new HashMap<>());
-			tableRows.put(tableName, new HashMap<>());
-			
-			Map<String, String> table = tables.get(tableName);
-			Map<String, Set<String>> tableRow = tableRows.get(tableName);
-			
+			Map<String, String> table = new HashMap<>();
+			tables.put(tableName, table);
 			ResultSet rsColumn = meta.getColumns(null, null, tableName, null);
 			while (rsColumn.next()){
 				/*retrieve column info for each table, insert into tables*/
 				String columnName = rsColumn.getString("COLUMN_NAME");
 				String columnType = rsColumn.getString("TYPE_NAME");
 				table.put(columnName, columnType); 
-				/*draw random sample of size 10000 from each table, insert into tableRows*/
-				String query = "SELECT " + columnName + " FROM " + tableName + " ORDER BY RANDOM() LIMIT 2000;";
-				ResultSet rows = stmt.executeQuery(query);
-				tableRow.put(columnName, new HashSet<String>());
-				Set<String> columnValues = tableRow.get(columnName);
-				while (rows.next()){
-					String columnValue = rows.getString(1);
-					//testing if the last column read has a SQL NULL
-					if (!rows.wasNull())
-						columnValues.add(columnValue);
+			}
+		}
+	}
+	
+	/**
+	 * Draw a random sample of values from each column, insert into tableRows.
+	 * Columns are sampled by {@link #parallelism} threads, each query on a
+	 * connection borrowed from the pool.
+	 */
+	private void sampleValues() throws SQLException {
+		tableRows = new HashMap<>();
+		Map<String, Map<String, Future<Set<String>>>> futures = new HashMap<>();
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		try {
+			for (String tableName : tables.keySet()) {
+				Map<String, Future<Set<String>>> tableFutures = new HashMap<>();
+				futures.put(tableName, tableFutures);
+				for (String columnName : tables.get(tableName).keySet()) {
+					tableFutures.put(columnName, executor.submit(() -> sampleColumn(tableName, columnName)));
+				}
+			}
+			for (String tableName : futures.keySet()) {
+				Map<String, Set<String>> tableRow = new HashMap<>();
+				tableRows.put(tableName, tableRow);
+				for (Map.Entry<String, Future<Set<String>>> e : futures.get(tableName).entrySet()) {
+					tableRow.put(e.getKey(), getSample(e.getValue()));
 				}
-			}			
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Wait for a sampling task, rethrowing its SQLException.
+	 */
+	private static Set<String> getSample(Future<Set<String>> future) throws SQLException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while sampling values", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException) { throw (SQLException) e.getCause(); }
+			throw new SQLException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Sample values of one column with the sampler of its table, on a connection
+	 * borrowed from the pool.
+	 * @return sampled values, empty if the query timed out
+	 */
+	private Set<String> sampleColumn(String tableName, String columnName) throws SQLException {
+		Set<String> columnValues = new HashSet<String>();
+		ValueSampler sampler = getSampler(tableName);
+		Connection c = pool.borrow();
+		try {
+			columnValues = sampler.sample(c, tableName, columnName, SAMPLE_SIZE, queryTimeout);
+		} catch (SQLException e) {
+			// pgjdbc reports a statement timeout as SQLState 57014 (query_canceled)
+			if (!(e instanceof SQLTimeoutException) && !"57014".equals(e.getSQLState())) { throw e; }
+			System.out.println("Sampling "+tableName+"."+columnName+" timed out.");
+		} finally {
+			pool.release(c);
+		}
+		return columnValues;
+	}
+	
+	private ValueSampler getSampler(String tableName) {
+		ValueSampler sampler = tableSamplers.get(tableName);
+		return sampler == null ? defaultSampler : sampler;
+	}
+	
+	private String computeFingerprint(DatabaseMetaData meta) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append(meta.getURL()).append('|').append(meta.getUserName()).append('|').append(SAMPLE_SIZE);
+		for (String tableName : new TreeSet<>(tables.keySet())) {
+			sb.append('|').append(tableName).append(new TreeMap<>(tables.get(tableName)));
+			sb.append(new TreeSet<>(keys.get(tableName))).append(getSampler(tableName));
+		}
+		for (ForeignKey fk : foreignKeys) { sb.append('|').append(fk); }
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte[] digest = md.digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) { hex.append(String.format("%02x", b)); }
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(sb.toString().hashCode());
+		}
+	}
+	
+	/**
+	 * Read table sizes and sampled values from the cache file.
+	 * @return true if the cache file exists and matches the fingerprint
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean readCache() {
+		if (cacheFile == null || !cacheFile.exists()) { return false; }
+		try (ObjectInputStream in = new ObjectInputStream(
+				new BufferedInputStream(new FileInputStream(cacheFile)))) {
+			if (in.readInt() != CACHE_VERSION) { return false; }
+			if (!fingerprint.equals(in.readUTF())) {
+				System.out.println("Schema changed, ignoring cache "+cacheFile);
+				return false;
+			}
+			tableSizes = (Map<String, Long>) in.readObject();
+			tableRows = (Map<String, Map<String, Set<String>>>) in.readObject();
+			System.out.println("Schema graph read from cache "+cacheFile);
+			return true;
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			System.out.println("Cannot read cache "+cacheFile+": "+e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Write table sizes and sampled values to the cache file.
+	 */
+	private void writeCache() {
+		if (cacheFile == null) { return; }
+		File tmp = new File(cacheFile.getPath()+".tmp");
+		try (ObjectOutputStream out = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(CACHE_VERSION);
+			out.writeUTF(fingerprint);
+			out.writeObject(tableSizes);
+			out.writeObject(tableRows);
+		} catch (IOException e) {
+			System.out.println("Cannot write cache "+cacheFile+": "+e);
+			tmp.delete();
+			return;
+		}
+		cacheFile.delete();
+		if (!tmp.renameTo(cacheFile)) {
+			System.out.println("Cannot rename "+tmp+" to "+cacheFile);
 		}
-		if (stmt != null) { stmt.close(); }
-		readPrimaryKeys(meta);
-		findConnectivity();
-		System.out.println("Schema graph retrieved.");
 	}
 
 	private void readPrimaryKeys(DatabaseMetaData meta) throws SQLException {
@@ -99,109 +381,432 @@ public class SchemaGraph {
 //		System.out.println(keys);
 	}
 	
-	private void findConnectivity() {
-		connectivity = new HashMap<String, Set<String>>();
-		for (String tableName : tables.keySet()) {
-			connectivity.put(tableName, new HashSet<String>());
-		}
-		for (String table1 : tables.keySet()) {
-			for (String table2 : tables.keySet()) {
-				if (table1.equals(table2)) { continue; }
-				if (!getJoinKeys(table1, table2).isEmpty()) {
-					connectivity.get(table1).add(table2);
-					connectivity.get(table2).add(table1);
+	/**
+	 * Read the foreign keys of every table that reference a table of the schema.
+	 * Columns of a composite key are ordered by KEY_SEQ. Imported keys of all
+	 * tables cover all foreign keys, so exported keys are not read.
+	 */
+	private void readForeignKeys(DatabaseMetaData meta) throws SQLException {
+		foreignKeys = new ArrayList<>();
+		for (String tableName : new TreeSet<>(tables.keySet())) {
+			// referenced table and key name, foreign key
+			Map<String, ForeignKey> tableKeys = new TreeMap<>();
+			ResultSet rsForeignKey = meta.getImportedKeys(null, null, tableName);
+			while (rsForeignKey.next()) {
+				String referencedTable = rsForeignKey.getString("PKTABLE_NAME");
+				if (!tables.containsKey(referencedTable)) { continue; }
+				String name = rsForeignKey.getString("FK_NAME");
+				String id = referencedTable + "." + (name == null ? "" : name);
+				ForeignKey fk = tableKeys.get(id);
+				if (fk == null) {
+					fk = new ForeignKey(name, tableName, referencedTable);
+					tableKeys.put(id, fk);
 				}
+				fk.columns.put(rsForeignKey.getInt("KEY_SEQ"), new String[] {
+						rsForeignKey.getString("FKCOLUMN_NAME"), rsForeignKey.getString("PKCOLUMN_NAME")});
 			}
+			foreignKeys.addAll(tableKeys.values());
 		}
 	}
-
-	public Set<String> getJoinKeys(String table1, String table2) {
-		Set<String> table1Keys = keys.get(table1);
-		Set<String> table2Keys = keys.get(table2);
-		if (table1Keys.equals(table2Keys)) { return new HashSet<String>(); }
-		boolean keys1ContainedIn2 = true;
-		for (String table1Key : table1Keys) {
-			if (!tables.get(table2).containsKey(table1Key)) {
-				keys1ContainedIn2 = false;
-				break;
+	
+	/**
+	 * Find the join columns between tables from the foreign keys. If the schema
+	 * declares none, tables are joined on the primary key of one table if all its
+	 * columns are in the other table (and the primary keys differ).
+	 */
+	private void findConnectivity() {
+		joinColumns = new HashMap<>();
+		for (String tableName : tables.keySet()) {
+			joinColumns.put(tableName, new HashMap<String, List<String[]>>());
+		}
+		if (!foreignKeys.isEmpty()) {
+			for (ForeignKey fk : foreignKeys) {
+				addJoinColumns(fk.table, fk.referencedTable, new ArrayList<>(fk.columns.values()));
 			}
+			return;
 		}
-		if (keys1ContainedIn2) { return new HashSet<String>(table1Keys); }
-		
-		boolean keys2ContainedIn1 = true;
-		for (String table2Key : table2Keys) {
-			if (!tables.get(table1).containsKey(table2Key)) {
-				keys2ContainedIn1 = false;
-				break;
+		// column name, tables having a column of that name
+		Map<String, Set<String>> columnTables = new HashMap<>();
+		for (String tableName : tables.keySet()) {
+			for (String columnName : tables.get(tableName).keySet()) {
+				columnTables.computeIfAbsent(columnName, k -> new HashSet<String>()).add(tableName);
 			}
 		}
-		if (keys2ContainedIn1) { return new HashSet<String>(table2Keys); }
-		
-		return new HashSet<String>();
+		for (String table1 : new TreeSet<>(tables.keySet())) {
+			Set<String> table1Keys = keys.get(table1);
+			if (table1Keys.isEmpty()) { continue; }
+			Set<String> candidates = null; // tables having all columns of the key
+			for (String key : table1Keys) {
+				if (candidates == null) { candidates = new TreeSet<>(columnTables.get(key)); }
+				else { candidates.retainAll(columnTables.get(key)); }
+			}
+			List<String[]> pairs = new ArrayList<>();
+			for (String key : new TreeSet<>(table1Keys)) { pairs.add(new String[] {key, key}); }
+			for (String table2 : candidates) {
+				if (!table1Keys.equals(keys.get(table2))) { addJoinColumns(table2, table1, pairs); }
+			}
+		}
+	}
+	
+	/**
+	 * Join two different tables on the pairs {column of table1, column of table2},
+	 * unless they are already joined: only the first foreign key between two
+	 * tables is used.
+	 */
+	private void addJoinColumns(String table1, String table2, List<String[]> pairs) {
+		if (table1.equals(table2) || joinColumns.get(table1).containsKey(table2)) { return; }
+		List<String[]> reversed = new ArrayList<>();
+		for (String[] pair : pairs) { reversed.add(new String[] {pair[1], pair[0]}); }
+		joinColumns.get(table1).put(table2, pairs);
+		joinColumns.get(table2).put(table1, reversed);
+	}
+	
+	/**
+	 * Estimate the number of rows of every table, used to weight the joins.
+	 */
+	private void estimateTableSizes() throws SQLException {
+		tableSizes = new HashMap<>();
+		Connection c = pool.borrow();
+		try {
+			for (String tableName : tables.keySet()) {
+				tableSizes.put(tableName, estimateRows(c, tableName));
+			}
+		} finally {
+			pool.release(c);
+		}
+	}
+	
+	/**
+	 * Estimated number of rows from the PostgreSQL statistics, otherwise from the
+	 * approximate statistics of the unique indexes.
+	 * @return estimated number of rows, -1 if unknown
+	 */
+	private long estimateRows(Connection c, String tableName) throws SQLException {
+		try {
+			long rows = ValueSampler.estimateRows(c, tableName, queryTimeout);
+			if (rows > 0) { return rows; }
+		} catch (SQLException e) {
+			// not PostgreSQL
+		}
+		long rows = -1;
+		ResultSet rsIndex = c.getMetaData().getIndexInfo(null, null, tableName, true, true);
+		while (rsIndex.next()) {
+			rows = Math.max(rows, rsIndex.getLong("CARDINALITY"));
+		}
+		return rows > 0 ? rows : -1;
+	}
+	
+	/**
+	 * Return the columns of table1 it is joined on with table2, empty if they
+	 * cannot be joined directly. The set cannot be modified. If the tables are joined by a foreign key, use
+	 * {@link #getJoinColumns(String, String)} since the column names may differ.
+	 * @param table1
+	 * @param table2
+	 * @return
+	 */
+	public Set<String> getJoinKeys(String table1, String table2) {
+		return state.joinTable.getJoinKeys(table1, table2);
+	}
+	
+	/**
+	 * Return the columns two tables are joined on, as pairs {column of table1,
+	 * column of table2}, empty if they cannot be joined directly. The list cannot
+	 * be modified, and neither should the pairs, which are shared.
+	 * @param table1
+	 * @param table2
+	 * @return
+	 */
+	public List<String[]> getJoinColumns(String table1, String table2) {
+		return state.joinTable.getJoinColumns(table1, table2);
 	}
 	
 	/**
 	 * Return a list of String as join path in the form of:
 	 * <br> table1 table3 table2
-	 * <br> Shortest join path is found using BFS.
-	 * <br> The join keys can be found using {@link #getJoinKeys(String, String)} 
+	 * <br> The cheapest join paths between all tables are found with Dijkstra's
+	 * algorithm when the schema is loaded, where joining a table costs more the more
+	 * rows it has (see {@link #getJoinCost(String, String)}). The returned list cannot
+	 * be modified. It is empty if a table does not exist or the tables are not connected.
+	 * <br> The join columns can be found using {@link #getJoinColumns(String, String)} 
 	 * @param table1
 	 * @param table2
 	 * @return
 	 */
 	public List<String> getJoinPath(String table1, String table2) {
-		if (!tables.containsKey(table1) || !tables.containsKey(table2)) {
-			return new ArrayList<String>();
+		return state.joinTable.getJoinPath(table1, table2);
+	}
+	
+	/**
+	 * @param tableName
+	 * @return whether the schema has the table
+	 */
+	public boolean containsTable(String tableName) {
+		return state.joinTable.containsTable(tableName);
+	}
+	
+	/**
+	 * Return the number of joins on the cheapest join path, -1 if the tables
+	 * are not connected or do not exist.
+	 * @param table1
+	 * @param table2
+	 * @return
+	 */
+	public int getJoinDistance(String table1, String table2) {
+		return state.joinTable.getJoinDistance(table1, table2);
+	}
+	
+	/**
+	 * Return the cost of the cheapest join path, -1 if the tables are not connected
+	 * or do not exist. A join costs the average cost of its two tables, which is
+	 * 1 + log10(1 + estimated rows), so the cost only depends on the size of the
+	 * tables in between. If no table size is known, this is the number of joins.
+	 * @param table1
+	 * @param table2
+	 * @return
+	 */
+	public double getJoinCost(String table1, String table2) {
+		return state.joinTable.getJoinCost(table1, table2);
+	}
+	
+	/**
+	 * A declared foreign key of table referencing referencedTable.
+	 */
+	private static final class ForeignKey {
+		private final String name;
+		private final String table;
+		private final String referencedTable;
+		/**
+		 * KEY_SEQ, {column of table, column of referencedTable}
+		 */
+		private final TreeMap<Integer, String[]> columns = new TreeMap<>();
+		
+		ForeignKey(String name, String table, String referencedTable) {
+			this.name = name;
+			this.table = table;
+			this.referencedTable = referencedTable;
 		}
-		// Assume table1 and table2 are different.
-		// Find shortest path using BFS.
-		HashMap<String, Boolean> visited = new HashMap<>();
-		for (String tableName : tables.keySet()) {
-			visited.put(tableName, false);
-		}
-		HashMap<String, String> prev = new HashMap<>(); // the parent tableName
-		LinkedList<String> queue = new LinkedList<>();
-		queue.addLast(table1);
-		visited.put(table1, true);
-		boolean found = false;
-		while (!queue.isEmpty() && !found) {
-			String tableCurr = queue.removeFirst();
-			for (String tableNext : connectivity.get(tableCurr)) {
-				if (!visited.get(tableNext)) {
-					visited.put(tableNext, true);
-					queue.addLast(tableNext);
-					prev.put(tableNext, tableCurr);
+		
+		@Override
+		public String toString() {
+			StringBuilder from = new StringBuilder(), to = new StringBuilder();
+			for (String[] pair : columns.values()) {
+				if (from.length() > 0) { from.append(','); to.append(','); }
+				from.append(pair[0]);
+				to.append(pair[1]);
+			}
+			return name+": "+table+"("+from+") -> "+referencedTable+"("+to+")";
+		}
+	}
+	
+	/**
+	 * Immutable table of cheapest join paths between all pairs of tables, indexed
+	 * by table id. The paths, join columns and join keys of all pairs are built
+	 * once, unmodifiable, so that looking them up while translating allocates nothing.
+	 */
+	private static final class JoinTable {
+		private final Map<String, Integer> tableIds = new HashMap<>();
+		private final String[] names;
+		/**
+		 * prev[source][target] is the table before target on the cheapest path from
+		 * source, -1 if target is source, -2 if they are not connected.
+		 */
+		private final int[][] prev;
+		private final double[][] costs;
+		private final int[][] distances;
+		private final List<String>[][] paths;
+		private final List<String[]>[][] columns;
+		private final Set<String>[][] keys;
+		
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		JoinTable(SchemaGraph schema) {
+			names = new TreeSet<>(schema.tables.keySet()).toArray(new String[0]);
+			Map<String, Map<String, List<String[]>>> joinColumns = schema.joinColumns;
+			int N = names.length;
+			for (int i = 0; i < N; i++) { tableIds.put(names[i], i); }
+			double[] tableCosts = tableCosts(names, schema.tableSizes);
+			int[][] neighbors = new int[N][];
+			for (int i = 0; i < N; i++) {
+				Set<String> joined = joinColumns.get(names[i]).keySet();
+				neighbors[i] = new int[joined.size()];
+				int k = 0;
+				for (String name : joined) { neighbors[i][k++] = tableIds.get(name); }
+				Arrays.sort(neighbors[i]);
+			}
+			prev = new int[N][N];
+			costs = new double[N][N];
+			distances = new int[N][N];
+			// Dijkstra from every table; on equal cost, fewer joins first
+			PriorityQueue<double[]> heap = new PriorityQueue<>((a, b) -> {
+				for (int k = 0; k < a.length; k++) {
+					int cmp = Double.compare(a[k], b[k]);
+					if (cmp != 0) { return cmp; }
+				}
+				return 0;
+			});
+			boolean[] done = new boolean[N];
+			for (int source = 0; source < N; source++) {
+				int[] prevs = prev[source];
+				double[] cost = costs[source];
+				int[] dist = distances[source];
+				Arrays.fill(prevs, -2);
+				Arrays.fill(cost, Double.POSITIVE_INFINITY);
+				Arrays.fill(dist, -1);
+				Arrays.fill(done, false);
+				prevs[source] = -1;
+				cost[source] = 0;
+				dist[source] = 0;
+				heap.add(new double[] {0, 0, source});
+				while (!heap.isEmpty()) {
+					int curr = (int) heap.poll()[2];
+					if (done[curr]) { continue; }
+					done[curr] = true;
+					for (int next : neighbors[curr]) {
+						if (done[next]) { continue; }
+						double nextCost = cost[curr] + (tableCosts[curr] + tableCosts[next]) / 2;
+						int nextDist = dist[curr] + 1;
+						if (nextCost < cost[next] || (nextCost == cost[next] && nextDist < dist[next])) {
+							prevs[next] = curr;
+							cost[next] = nextCost;
+							dist[next] = nextDist;
+							heap.add(new double[] {nextCost, nextDist, next});
+						}
+					}
+				}
+			}
+			paths = new List[N][N];
+			columns = new List[N][N];
+			keys = new Set[N][N];
+			for (int i = 0; i < N; i++) {
+				for (int j = 0; j < N; j++) {
+					paths[i][j] = buildJoinPath(i, j);
+					List<String[]> pairs = joinColumns.get(names[i]).get(names[j]);
+					if (pairs == null) {
+						columns[i][j] = Collections.emptyList();
+						keys[i][j] = Collections.emptySet();
+					} else {
+						List<String[]> copies = new ArrayList<>(pairs.size());
+						Set<String> joinKeys = new HashSet<>();
+						for (String[] pair : pairs) {
+							copies.add(pair.clone());
+							joinKeys.add(pair[0]);
+						}
+						columns[i][j] = Collections.unmodifiableList(copies);
+						keys[i][j] = Collections.unmodifiableSet(joinKeys);
+					}
 				}
-				if (tableNext.equals(table2)) { found = true; }
 			}
 		}
-
-		LinkedList<String> path = new LinkedList<>();
-		if (visited.get(table2)) {
-			String tableEnd = table2; 
-			path.push(tableEnd);
-			while (prev.containsKey(tableEnd)) {
-				tableEnd = prev.get(tableEnd);
-				path.push(tableEnd);
+		
+		private List<String> buildJoinPath(int i, int j) {
+			if (prev[i][j] == -2) { return Collections.emptyList(); }
+			LinkedList<String> path = new LinkedList<>();
+			for (int t = j; t != -1; t = prev[i][t]) { path.push(names[t]); }
+			return Collections.unmodifiableList(new ArrayList<>(path));
+		}
+		
+		/**
+		 * Cost of joining each table, 1 + log10(1 + estimated rows). Tables of unknown
+		 * size cost as much as the largest known one, all cost 1 if none is known.
+		 */
+		private static double[] tableCosts(String[] names, Map<String, Long> tableSizes) {
+			double[] tableCosts = new double[names.length];
+			double unknown = 1;
+			for (int i = 0; i < names.length; i++) {
+				Long rows = tableSizes.get(names[i]);
+				tableCosts[i] = rows == null || rows < 0 ? -1 : 1 + Math.log10(1 + rows);
+				unknown = Math.max(unknown, tableCosts[i]);
+			}
+			for (int i = 0; i < names.length; i++) {
+				if (tableCosts[i] < 0) { tableCosts[i] = unknown; }
 			}
+			return tableCosts;
+		}
+		
+		boolean containsTable(String table) {
+			return tableIds.containsKey(table);
+		}
+		
+		List<String> getJoinPath(String table1, String table2) {
+			Integer i = tableIds.get(table1), j = tableIds.get(table2);
+			if (i == null || j == null) { return Collections.emptyList(); }
+			return paths[i][j];
+		}
+		
+		List<String[]> getJoinColumns(String table1, String table2) {
+			Integer i = tableIds.get(table1), j = tableIds.get(table2);
+			if (i == null || j == null) { return Collections.emptyList(); }
+			return columns[i][j];
+		}
+		
+		Set<String> getJoinKeys(String table1, String table2) {
+			Integer i = tableIds.get(table1), j = tableIds.get(table2);
+			if (i == null || j == null) { return Collections.emptySet(); }
+			return keys[i][j];
+		}
+		
+		int getJoinDistance(String table1, String table2) {
+			Integer i = tableIds.get(table1), j = tableIds.get(table2);
+			if (i == null || j == null) { return -1; }
+			return distances[i][j];
+		}
+		
+		double getJoinCost(String table1, String table2) {
+			Integer i = tableIds.get(table1), j = tableIds.get(table2);
+			if (i == null || j == null || prev[i][j] == -2) { return -1; }
+			return costs[i][j];
+		}
+	}
+	
+	/**
+	 * Tables, sampled values and join paths read together, never modified after
+	 * they are published. Refreshing the schema builds new maps for them.
+	 */
+	private static final class State {
+		private final Map<String, Map<String, String>> tables;
+		private final Map<String, Map<String, Set<String>>> tableRows;
+		private final JoinTable joinTable;
+		/**
+		 * Trigram index over tableRows, built on first use.
+		 */
+		private ValueIndex valueIndex;
+		
+		State(SchemaGraph schema) {
+			tables = schema.tables;
+			tableRows = schema.tableRows;
+			joinTable = new JoinTable(schema);
+		}
+		
+		synchronized ValueIndex getValueIndex() {
+			if (valueIndex == null) {
+				valueIndex = new ValueIndex(tableRows);
+			}
+			return valueIndex;
 		}
-		return path;
 	}
 	
 	public Set<String> getTableNames() {
-		return tables.keySet();
+		return state.tables.keySet();
 	}
 	
 	public Set<String> getColumns(String tableName) {
-		return tables.get(tableName).keySet();
+		return state.tables.get(tableName).keySet();
 	}
 	
 	public Set<String> getValues(String tableName, String columnName){
-		return tableRows.get(tableName).get(columnName);
+		return state.tableRows.get(tableName).get(columnName);
+	}
+	
+	/**
+	 * Return the index over all sampled values, building it on the first call.
+	 * @return index of sampled values
+	 */
+	public ValueIndex getValueIndex() {
+		return state.getValueIndex();
 	}
 
 	@Override
 	public String toString() {
+		Map<String, Map<String, String>> tables = state.tables;
 		String s = "";
 		for (String tableName : tables.keySet()) {
 			s += "table: "+tableName+"\n";
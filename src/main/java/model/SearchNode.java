@@ -0,0 +1,213 @@
+package model;
+
+import java.util.Objects;
+
+/**
+ * <p>An immutable parse tree node for the search in {@link TreeAdjustor}.</p>
+ * <p>An edit copies only the nodes on the path from the root to the edited
+ * node, all other subtrees are shared with the tree it was made from. Nodes
+ * have no parent pointer, so a node is found by its path of child positions
+ * from the root.</p>
+ * @author keping
+ *
+ */
+final class SearchNode {
+	final int index;
+	final String word;
+	final String posTag;
+	final NodeInfo info;
+	final boolean outside;
+	/**
+	 * Children, never modified after construction.
+	 */
+	private final SearchNode[] children;
+	/**
+	 * Same as {@link Node#hashCode()} of the same subtree.
+	 */
+	private final int hash;
+	/**
+	 * Same as {@link Node#fingerprint()} of the same subtree.
+	 */
+	private final long fingerprint;
+	/**
+	 * Number of invalid nodes below this node, -1 until computed. Edited trees
+	 * share it with the subtrees they share, so scoring an edited tree only
+	 * checks the copied nodes.
+	 */
+	private int invalidBelow = -1;
+
+	private SearchNode(int index, String word, String posTag, NodeInfo info, boolean outside, SearchNode[] children) {
+		this.index = index;
+		this.word = word;
+		this.posTag = posTag;
+		this.info = info;
+		this.outside = outside;
+		this.children = children;
+		final int prime = 31;
+		int result = 17;
+		result = prime * result + index;
+		result = prime * result + ((posTag == null) ? 0 : posTag.hashCode());
+		result = prime * result + ((word == null) ? 0 : word.hashCode());
+		result = prime * result + ((info == null) ? 0 : info.hashCode());
+		long[] childFingerprints = new long[children.length];
+		for (int i = 0; i < children.length; i++) {
+			result = prime * result + children[i].hash;
+			childFingerprints[i] = children[i].fingerprint;
+		}
+		this.hash = result;
+		this.fingerprint = Fingerprint.of(index, word, posTag, info, childFingerprints);
+	}
+
+	/**
+	 * Copy the tree of the node.
+	 * @param node
+	 * @return
+	 */
+	static SearchNode of(Node node) {
+		SearchNode[] children = new SearchNode[node.getChildren().size()];
+		for (int i = 0; i < children.length; i++) {
+			children[i] = of(node.getChildren().get(i));
+		}
+		return new SearchNode(node.getIndex(), node.word, node.posTag, node.info, node.outside, children);
+	}
+
+	/**
+	 * Copy the tree back to mutable Nodes.
+	 * @return
+	 */
+	Node toNode() {
+		Node node = new Node(index, word, posTag, info);
+		node.outside = outside;
+		for (SearchNode child : children) {
+			Node copyChild = child.toNode();
+			copyChild.parent = node;
+			node.children.add(copyChild);
+		}
+		return node;
+	}
+
+	int getChildCount() { return children.length; }
+
+	SearchNode getChild(int i) { return children[i]; }
+
+	/**
+	 * Return the types of the children, for {@link SyntacticEvaluator}.
+	 */
+	NodeType[] getChildTypes() {
+		NodeType[] types = new NodeType[children.length];
+		for (int i = 0; i < children.length; i++) { types[i] = children[i].info.getNodeType(); }
+		return types;
+	}
+
+	/**
+	 * Number of invalid nodes of the tree of this root, see
+	 * {@link SyntacticEvaluator#numberOfInvalidNodes(ParseTree)}.
+	 */
+	int numberOfInvalidNodes() {
+		return SyntacticEvaluator.check(info.getNodeType(), null, getChildTypes()) + numberOfInvalidNodesBelow();
+	}
+
+	private int numberOfInvalidNodesBelow() {
+		if (invalidBelow < 0) {
+			NodeType type = info.getNodeType();
+			int numOfInvalid = 0;
+			for (SearchNode child : children) {
+				numOfInvalid = numOfInvalid + SyntacticEvaluator.check(child.info.getNodeType(), type, child.getChildTypes())
+						+ child.numberOfInvalidNodesBelow();
+			}
+			invalidBelow = numOfInvalid;
+		}
+		return invalidBelow;
+	}
+
+	/**
+	 * Return this node with other children.
+	 */
+	SearchNode withChildren(SearchNode[] children) {
+		return new SearchNode(index, word, posTag, info, outside, children);
+	}
+
+	/**
+	 * Return this node with the word, POS tag and info of the other node,
+	 * which is how {@link TreeAdjustor} swaps two nodes.
+	 */
+	SearchNode withLabelOf(SearchNode other) {
+		return new SearchNode(index, other.word, other.posTag, other.info, outside, children);
+	}
+
+	/**
+	 * Return this node with the i-th child replaced.
+	 */
+	SearchNode withChild(int i, SearchNode child) {
+		SearchNode[] copy = children.clone();
+		copy[i] = child;
+		return withChildren(copy);
+	}
+
+	/**
+	 * Return this node with a child added as the rightmost one.
+	 */
+	SearchNode withChildAdded(SearchNode child) {
+		SearchNode[] copy = new SearchNode[children.length + 1];
+		System.arraycopy(children, 0, copy, 0, children.length);
+		copy[children.length] = child;
+		return withChildren(copy);
+	}
+
+	/**
+	 * Return this node without its i-th child.
+	 */
+	SearchNode withChildRemoved(int i) {
+		SearchNode[] copy = new SearchNode[children.length - 1];
+		System.arraycopy(children, 0, copy, 0, i);
+		System.arraycopy(children, i + 1, copy, i, children.length - i - 1);
+		return withChildren(copy);
+	}
+
+	/**
+	 * Return the tree of this root with the node at the path replaced,
+	 * copying the nodes on the path and sharing all others.
+	 * @param path child positions from this node
+	 * @param length number of positions of the path to follow
+	 * @param replacement new subtree
+	 * @return root of the new tree
+	 */
+	SearchNode replace(int[] path, int length, SearchNode replacement) {
+		return replace(path, 0, length, replacement);
+	}
+
+	private SearchNode replace(int[] path, int depth, int length, SearchNode replacement) {
+		if (depth == length) { return replacement; }
+		int i = path[depth];
+		return withChild(i, children[i].replace(path, depth + 1, length, replacement));
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	long fingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Same as {@link Node#equals(Object)}, but shared subtrees are equal
+	 * without comparing them, and subtrees with different fingerprints are
+	 * different. So comparing two trees only descends into the edited paths.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) { return true; }
+		if (!(obj instanceof SearchNode)) { return false; }
+		SearchNode other = (SearchNode) obj;
+		if (fingerprint != other.fingerprint || index != other.index) { return false; }
+		if (!Objects.equals(word, other.word) || !Objects.equals(posTag, other.posTag)) { return false; }
+		if (!Objects.equals(info, other.info)) { return false; }
+		if (children.length != other.children.length) { return false; }
+		for (int i = 0; i < children.length; i++) {
+			if (!children[i].equals(other.children[i])) { return false; }
+		}
+		return true;
+	}
+}
@@ -0,0 +1,125 @@
+package model;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A thread-safe table of sessions by random ID, of bounded size. A session
+ * expires when it has not been used for the time to live, and the least
+ * recently used session is evicted when the table is full.</p>
+ * <p>Entries are kept in the order of use, so expired sessions are found
+ * from the least recently used one and the search stops at the first
+ * session still alive.</p>
+ * @author keping
+ *
+ * @param <V> session
+ */
+public class SessionTable<V> {
+	private final int capacity;
+	private final long ttlNanos;
+	private final LinkedHashMap<String, Slot<V>> map;
+	private long expirations = 0;
+	private long evictions = 0;
+
+	private static final class Slot<V> {
+		final V value;
+		long lastUse;
+
+		Slot(V value, long lastUse) {
+			this.value = value;
+			this.lastUse = lastUse;
+		}
+	}
+
+	/**
+	 * @param capacity maximum number of sessions
+	 * @param ttl time to live after the last use
+	 * @param unit unit of the time to live
+	 */
+	public SessionTable(int capacity, long ttl, TimeUnit unit) {
+		if (capacity < 1) { throw new IllegalArgumentException("capacity must be positive"); }
+		this.capacity = capacity;
+		this.ttlNanos = unit.toNanos(ttl);
+		this.map = new LinkedHashMap<String, Slot<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Slot<V>> eldest) {
+				if (size() > SessionTable.this.capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Add a session, evicting expired sessions first and the least recently
+	 * used one if the table is still full.
+	 * @param value
+	 * @return ID of the session
+	 */
+	public synchronized String add(V value) {
+		evictExpired();
+		String id = UUID.randomUUID().toString();
+		map.put(id, new Slot<V>(value, System.nanoTime()));
+		return id;
+	}
+
+	/**
+	 * Return the session and mark it used.
+	 * @param id
+	 * @return the session, or null if there is none with the ID or it expired
+	 */
+	public synchronized V get(String id) {
+		Slot<V> entry = map.get(id);
+		if (entry == null) { return null; }
+		long now = System.nanoTime();
+		if (now - entry.lastUse > ttlNanos) {
+			map.remove(id);
+			expirations++;
+			return null;
+		}
+		entry.lastUse = now;
+		return entry.value;
+	}
+
+	/**
+	 * @param id
+	 * @return the removed session, or null
+	 */
+	public synchronized V remove(String id) {
+		Slot<V> entry = map.remove(id);
+		return entry == null ? null : entry.value;
+	}
+
+	/**
+	 * Remove the sessions not used for the time to live.
+	 * @return number of sessions removed
+	 */
+	public synchronized int evictExpired() {
+		long now = System.nanoTime();
+		int removed = 0;
+		for (Iterator<Slot<V>> it = map.values().iterator(); it.hasNext(); ) {
+			if (now - it.next().lastUse <= ttlNanos) { break; }
+			it.remove();
+			removed++;
+		}
+		expirations += removed;
+		return removed;
+	}
+
+	public synchronized int size() { return map.size(); }
+	public int getCapacity() { return capacity; }
+	public synchronized long getExpirations() { return expirations; }
+	public synchronized long getEvictions() { return evictions; }
+
+	@Override
+	public synchronized String toString() {
+		return String.format("size=%d/%d, expirations=%d, evictions=%d",
+				map.size(), capacity, expirations, evictions);
+	}
+}
@@ -1,7 +1,5 @@
 package model;
 
-import java.util.List;
-
 public class SyntacticEvaluator {
 
 	int numOfInvalid;
@@ -15,32 +13,27 @@ public class SyntacticEvaluator {
 	 * it has no child; 
 	 * it has only one child and this child is not SN; 
 	 * it has more than one child and other than the first child is not ON.
-	 * @param node
+	 * @param childTypes
 	 * @return
 	 */
-	private static int checkROOT(Node node){
+	private static int checkROOT(NodeType[] childTypes){
 		int numOfInvalid = 0;
-		List<Node> children = node.getChildren();
-		int sizeOfChildren = children.size();
+		int sizeOfChildren = childTypes.length;
 		
 		if (sizeOfChildren == 0){
 			numOfInvalid++;
-			node.isInvalid = true;
 		}
-		else if (sizeOfChildren == 1 && !children.get(0).getInfo().getType().equals("SN")){
+		else if (sizeOfChildren == 1 && childTypes[0] != NodeType.SN){
 			numOfInvalid++;
-			node.isInvalid = true;
 		}
 		else if (sizeOfChildren > 1){
-			if (!children.get(0).getInfo().getType().equals("SN")){
+			if (childTypes[0] != NodeType.SN){
 				numOfInvalid++;
-				node.isInvalid = true;
 			}
 			else {
 				for (int j = 1; j < sizeOfChildren; j++){
-					if (!children.get(j).getInfo().getType().equals("ON")){
+					if (childTypes[j] != NodeType.ON){
 						numOfInvalid++;
-						node.isInvalid = true;
 					}
 				}
 			}
@@ -52,24 +45,21 @@ public class SyntacticEvaluator {
 	 * a SN is not valid if: 
 	 * it has more than 1 child; 
 	 * it has 1 child but this child is not GNP (FN or NN).
-	 * @param node
+	 * @param childTypes
 	 * @return
 	 */
-	private static int checkSN(Node node){
+	private static int checkSN(NodeType[] childTypes){
 		int numOfInvalid = 0;
-		List<Node> children = node.getChildren();
-		int sizeOfChildren = children.size();
+		int sizeOfChildren = childTypes.length;
 		
 		//SN can only have one child from FN or NN
 		if (sizeOfChildren != 1){
 			numOfInvalid++;
-			node.isInvalid = true;
 		}
 		else{
-			String childType = children.get(0).getInfo().getType();
-			if (!(childType.equals("NN") || childType.equals("FN"))){
+			NodeType childType = childTypes[0];
+			if (!(childType == NodeType.NN || childType == NodeType.FN)){
 				numOfInvalid++;
-				node.isInvalid = true;
 			}
 		}
 		
@@ -84,48 +74,42 @@ public class SyntacticEvaluator {
 	 * (2) in Condition (its parent is NN):
 	 * 		its number of children is not 1;
 	 * 		it has 1 child, but the child is not VN.
-	 * @param node
+	 * @param parentType
+	 * @param childTypes
 	 * @return
 	 */
-	private static int checkON(Node node){
+	private static int checkON(NodeType parentType, NodeType[] childTypes){
 		int numOfInvalid = 0;
-		String parentType = node.getParent().getInfo().getType();
-		List<Node> children = node.getChildren();
-		int sizeOfChildren = children.size();
+		int sizeOfChildren = childTypes.length;
 		
-		if (parentType.equals("ROOT")){
+		if (parentType == NodeType.ROOT){
 			if (sizeOfChildren != 2){
 				numOfInvalid++;
-				node.isInvalid = true;
 			}
 			else{
 				for (int j = 0; j<sizeOfChildren; j++){
-					String childType = children.get(j).getInfo().getType();
+					NodeType childType = childTypes[j];
 					if (j==0){
-						if (!(childType.equals("NN") || childType.equals("FN"))){
+						if (!(childType == NodeType.NN || childType == NodeType.FN)){
 							numOfInvalid++;
-							node.isInvalid = true;
 							break;
 						}
 					}
 					else if (j==1){
-						if (childType.equals("ON")){
+						if (childType == NodeType.ON){
 							numOfInvalid++;
-							node.isInvalid = true;
 							break;
 						}
 					}
 				}
 			}
 		}
-		else if (parentType.equals("NN")){
+		else if (parentType == NodeType.NN){
 			if (sizeOfChildren != 1){
 				numOfInvalid++;
-				node.isInvalid = true;
 			}
-			else if (!children.get(0).getInfo().getType().equals("VN")){
+			else if (childTypes[0] != NodeType.VN){
 				numOfInvalid++;
-				node.isInvalid = true;
 			}
 		}
 		
@@ -136,30 +120,27 @@ public class SyntacticEvaluator {
 	 * a NN is invalid if: 
 	 * it is the second NN in "NP=NN+NN*Condition", and it has children.
 	 * it is the first NN in "GNP=NP=NN+NN*Condition", and its child is not NN, VN, ON.
-	 * @param node
+	 * @param parentType
+	 * @param childTypes
 	 * @return
 	 */
-	private static int checkNN(Node node){
+	private static int checkNN(NodeType parentType, NodeType[] childTypes){
 		int numOfInvalid = 0;
-		String parentType = node.getParent().getInfo().getType();
-		List<Node> children = node.getChildren();
-		int sizeOfChildren = children.size();
+		int sizeOfChildren = childTypes.length;
 		
 		//NP=NN+NN*Condition. Second NN has no child.
-		if (parentType.equals("NN")){
+		if (parentType == NodeType.NN){
 			if (sizeOfChildren != 0){   //this rule is different from figure 7 (a), but I think this makes sense
 				numOfInvalid++;
-				node.isInvalid = true;
 			}
 		}
 		//SN+GNP, or ON+GNP, or FN+GNP. and GNP=NP=NN+NN*Condition. First NN can have any number of children from NN,ON,VN.
-		else if (parentType.equals("SN") || parentType.equals("FN") || parentType.equals("ON")){
+		else if (parentType == NodeType.SN || parentType == NodeType.FN || parentType == NodeType.ON){
 			if (sizeOfChildren != 0){
 				for (int j = 0; j < sizeOfChildren; j++){
-					String childType = children.get(j).getInfo().getType();
-					if (!(childType.equals("NN") || childType.equals("VN") || childType.equals("ON"))){
+					NodeType childType = childTypes[j];
+					if (!(childType == NodeType.NN || childType == NodeType.VN || childType == NodeType.ON)){
 						numOfInvalid++;
-						node.isInvalid = true;
 						break;
 					}
 				}
@@ -172,23 +153,19 @@ public class SyntacticEvaluator {
 	/**
 	 * a VN is invalid if:
 	 * it has children.
-	 * @param node
+	 * @param childTypes
 	 * @return
 	 */
-	private static int checkVN(Node node){
+	private static int checkVN(NodeType[] childTypes){
 		int numOfInvalid = 0;
-		//String parentType = node.getParent().getInfo().getType();
-		List<Node> children = node.getChildren();
-		int sizeOfChildren = children.size();
+		int sizeOfChildren = childTypes.length;
 		
 		if (sizeOfChildren != 0){  //VN cannot have children
 			numOfInvalid++;
-			node.isInvalid = true;
 		}
 		/*
-		else if (!(parentType.equals("ON") || parentType.equals("NN"))){  //VN can only be child of ON and NN
+		else if (!(parentType == NodeType.ON || parentType == NodeType.NN)){  //VN can only be child of ON and NN
 			numOfInvalid++;
-			node.isInvalid = true;
 		}
 		*/
 		return numOfInvalid;
@@ -200,35 +177,30 @@ public class SyntacticEvaluator {
 	 * FN can be child of ON, without children or only 1 child of NN or FN, 
 	 * FN can be child of SN, with only 1 child of NN or FN, 
 	 * FN can be child of FN, with only 1 child of NN or FN. 
-	 * @param node
+	 * @param parentType
+	 * @param childTypes
 	 * @return
 	 */
-	private static int checkFN(Node node){
+	private static int checkFN(NodeType parentType, NodeType[] childTypes){
 		int numOfInvalid = 0;
-		String parentType = node.getParent().getInfo().getType();
-		List<Node> children = node.getChildren();
-		int sizeOfChildren = children.size();
+		int sizeOfChildren = childTypes.length;
 		
 		if (sizeOfChildren == 0){
-			if (!parentType.equals("ON")){
+			if (parentType != NodeType.ON){
 				numOfInvalid++;
-				node.isInvalid = true;
 			}
 		}
 		else if (sizeOfChildren == 1){
-			String childType = children.get(0).getInfo().getType();
-			if (!(parentType.equals("ON") || parentType.equals("SN") /*|| parentType.equals("FN")*/)){
+			NodeType childType = childTypes[0];
+			if (!(parentType == NodeType.ON || parentType == NodeType.SN /*|| parentType == NodeType.FN*/)){
 				numOfInvalid++;
-				node.isInvalid = true;
 			}
-			else if (!(childType.equals("NN") /*|| childType.equals("FN")*/)){
+			else if (!(childType == NodeType.NN /*|| childType == NodeType.FN*/)){
 				numOfInvalid++;
-				node.isInvalid = true;
 			}
 		}
 		else{
 			numOfInvalid++;
-			node.isInvalid = true;
 		}
 		
 		return numOfInvalid;
@@ -256,27 +228,41 @@ public class SyntacticEvaluator {
 	public static int numberOfInvalidNodes (ParseTree T){	
 		int numOfInvalid = 0;   //number of invalid tree nodes
 		for (Node curNode : T) {
-			String curType = curNode.getInfo().getType();
-			if (curType.equals("ROOT")){ //ROOT
-				numOfInvalid = numOfInvalid + checkROOT(curNode);
-			}
-			if (curType.equals("SN")){ // select node
-				numOfInvalid = numOfInvalid + checkSN(curNode);
-			}
-			else if (curType.equals("ON")){  //operator node
-				numOfInvalid = numOfInvalid + checkON(curNode);
-			}
-			else if (curType.equals("NN")){  //name node
-				numOfInvalid = numOfInvalid + checkNN(curNode);
-			}
-			else if (curType.equals("VN")){  //value node
-				numOfInvalid = numOfInvalid + checkVN(curNode);
-			}
-			else if (curType.equals("FN")){  //function nodes
-				numOfInvalid = numOfInvalid + checkFN(curNode);
+			NodeType parentType = curNode.getParent() == null ? null : curNode.getParent().getInfo().getNodeType();
+			int numOfInvalidNode = check(curNode.getInfo().getNodeType(), parentType, curNode.getChildTypes());
+			if (numOfInvalidNode > 0) {
+				curNode.isInvalid = true;
 			}
+			numOfInvalid = numOfInvalid + numOfInvalidNode;
 		}
 		return numOfInvalid;
 	}
 	
+	/**
+	 * Number of invalid nodes found by checking one node, which only depends on
+	 * the types of the node, its parent and its children.
+	 * @param curType
+	 * @param parentType null for the root
+	 * @param childTypes
+	 * @return
+	 */
+	static int check (NodeType curType, NodeType parentType, NodeType[] childTypes){
+		switch (curType) {
+		case ROOT:
+			return checkROOT(childTypes);
+		case SN:  // select node
+			return checkSN(childTypes);
+		case ON:  //operator node
+			return checkON(parentType, childTypes);
+		case NN:  //name node
+			return checkNN(parentType, childTypes);
+		case VN:  //value node
+			return checkVN(childTypes);
+		case FN:  //function nodes
+			return checkFN(parentType, childTypes);
+		default:
+			return 0;
+		}
+	}
+	
 }
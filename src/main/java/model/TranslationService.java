@@ -0,0 +1,126 @@
+package model;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>Translation of natural language questions to SQL without a user interface.
+ * The choices the user makes in the application, the NodeInfo of each node and
+ * the adjusted tree, are made by choosers given with the question.</p>
+ * <p>Each translation works on its own parse tree and only reads the parser,
+ * the node mapper and the schema, so many questions can be translated at the
+ * same time.</p>
+ * <p>Users choosing themselves get a {@link MappingSession} instead.</p>
+ * @author keping
+ *
+ */
+public class TranslationService {
+
+	/**
+	 * Chooses the NodeInfo of a node. Only called for nodes with more than one choice.
+	 */
+	public interface NodeChooser {
+		/**
+		 * @param node node being mapped
+		 * @param choices candidates ranked by {@link NodeMapper}, best first
+		 * @return one of the choices
+		 */
+		NodeInfo choose(Node node, List<NodeInfo> choices);
+	}
+
+	/**
+	 * Chooses one of the adjusted trees of a question.
+	 */
+	public interface TreeChooser {
+		/**
+		 * @param trees adjusted trees, best first
+		 * @return one of the trees
+		 */
+		ParseTree choose(List<ParseTree> trees);
+	}
+
+	/**
+	 * Choose the best ranked NodeInfo.
+	 */
+	public static final NodeChooser BEST_NODE_INFO = (node, choices) -> choices.get(0);
+	/**
+	 * Choose the best adjusted tree.
+	 */
+	public static final TreeChooser BEST_TREE = trees -> trees.get(0);
+
+	private final NLParser parser;
+	private final NodeMapper nodeMapper;
+	private final SchemaGraph schema;
+	/**
+	 * Runs the translations, owned by the caller.
+	 */
+	private final Executor executor;
+
+	public TranslationService(NLParser parser, NodeMapper nodeMapper, SchemaGraph schema, Executor executor) {
+		this.parser = parser;
+		this.nodeMapper = nodeMapper;
+		this.schema = schema;
+		this.executor = executor;
+	}
+
+	/**
+	 * Translate the question with the best ranked choices.
+	 * @param question
+	 * @return the query, completed in the executor
+	 */
+	public CompletableFuture<SQLQuery> translate(String question) {
+		return translate(question, BEST_NODE_INFO, BEST_TREE);
+	}
+
+	/**
+	 * Translate the question in the executor.
+	 * @param question
+	 * @param nodeChooser
+	 * @param treeChooser
+	 * @return the query, or completed exceptionally with the exception of the translation
+	 */
+	public CompletableFuture<SQLQuery> translate(String question, NodeChooser nodeChooser, TreeChooser treeChooser) {
+		return CompletableFuture.supplyAsync(() -> translateNow(question, nodeChooser, treeChooser), executor);
+	}
+
+	/**
+	 * Translate the question in the calling thread, going through the same
+	 * steps as the application: parse, map the nodes, remove meaningless nodes,
+	 * adjust the tree, insert implicit nodes and translate.
+	 * @param question
+	 * @param nodeChooser
+	 * @param treeChooser
+	 * @return
+	 */
+	public SQLQuery translateNow(String question, NodeChooser nodeChooser, TreeChooser treeChooser) {
+		ParseTree parseTree = parser.parse(question);
+		mapNodes(parseTree, nodeChooser);
+		parseTree.removeMeaninglessNodes();
+		parseTree.mergeLNQN();
+		List<ParseTree> treeChoices = parseTree.getAdjustedTrees();
+		parseTree = treeChooser.choose(treeChoices);
+		parseTree.insertImplicitNodes();
+		return parseTree.translateToSQL(schema);
+	}
+
+	/**
+	 * Parse the question and start mapping its nodes, for a user choosing
+	 * the NodeInfos and the tree one request at a time.
+	 * @param question
+	 * @return
+	 */
+	public MappingSession startSession(String question) {
+		return new MappingSession(parser.parse(question), nodeMapper, schema);
+	}
+
+	/**
+	 * Map every node of the tree to a NodeInfo, choosing among more than one candidate.
+	 */
+	private void mapNodes(ParseTree parseTree, NodeChooser nodeChooser) {
+		for (Node node : parseTree) {
+			List<NodeInfo> choices = nodeMapper.getNodeInfoChoices(node, schema);
+			node.setInfo(choices.size() == 1 ? choices.get(0) : nodeChooser.choose(node, choices));
+		}
+	}
+}
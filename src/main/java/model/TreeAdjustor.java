@@ -1,82 +1,137 @@
 package model;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
+/**
+ * Search for structurally adjusted parse trees.
+ * @author keping
+ *
+ */
 public class TreeAdjustor {
 	
 	private static final int MAX_EDIT = 15;
-	
 	/**
-	 * Return the node in the tree that equals to the targetNode.
-	 * @param tree
-	 * @param targetNode
-	 * @return
+	 * Default number of trees kept at each number of edits by the beam search.
 	 */
-	private static Node find(ParseTree tree, Node targetNode) {
-		for (Node node : tree) {
-			if (node.equals(targetNode)) { return node; }
-		}
-		return null;
-	}
+	public static final int BEAM_WIDTH = 200;
 	
 	/**
-	 * Swap this parent node and a child node.
-	 * @param parent
-	 * @param child
+	 * A tree in the search, with its number of edits and of invalid nodes,
+	 * which is counted once and mostly from counts cached in shared subtrees.
+	 * Its hashCode and equals are those of the ParseTree of the same nodes.
 	 */
-	private static void swap(Node parent, Node child) {
-		// swap the attributes directly.
-		NodeInfo childInfo = child.info;
-		String childWord = child.word;
-		String childPosTag = child.posTag;
-		child.info = parent.info;
-		child.word = parent.word;
-		child.posTag = parent.posTag;
-		parent.info = childInfo;
-		parent.word = childWord;
-		parent.posTag = childPosTag;
+	private static final class SearchTree {
+		final SearchNode root;
+		final int edit;
+		private int numInvalidNodes = -1;
+		
+		SearchTree(SearchNode root, int edit) {
+			this.root = root;
+			this.edit = edit;
+		}
+		
+		int getNumInvalidNodes() {
+			if (numInvalidNodes < 0) { numInvalidNodes = root.numberOfInvalidNodes(); }
+			return numInvalidNodes;
+		}
+		
+		ParseTree toParseTree() {
+			ParseTree tree = new ParseTree();
+			tree.root = root.toNode();
+			tree.setEdit(edit);
+			return tree;
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * 17 + root.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof SearchTree && root.equals(((SearchTree) obj).root);
+		}
 	}
 	
 	/**
-	 * Make the child node a rightmost sibling of the target Node.
-	 * @param target
-	 * @param child
+	 * <p>Results of the search. A result found by the search is copied to a ParseTree
+	 * the first time it is read, until then it only holds its {@link SearchNode} root,
+	 * which shares all nodes but its edited paths with other results.</p>
+	 * <p>It can be modified like an ArrayList and is not thread-safe either.</p>
 	 */
-	private static void makeSibling(Node target, Node child) {
-		List<Node> children = target.getChildren();
-		target.children = new ArrayList<Node>();;
-		for (Node anyChild : children) {
-			if (anyChild != child) { target.getChildren().add(anyChild); }
-		}
-		target.parent.children.add(child);
-		child.parent = target.parent;
+	private static final class ResultList extends AbstractList<ParseTree> implements RandomAccess {
+		/**
+		 * The ParseTree of each result, null if not copied yet.
+		 */
+		private final ArrayList<ParseTree> trees = new ArrayList<ParseTree>();
+		/**
+		 * The search tree of each result not copied yet, otherwise null.
+		 */
+		private final ArrayList<SearchTree> pending = new ArrayList<SearchTree>();
+		
+		void addSearchTree(SearchTree tree) {
+			trees.add(null);
+			pending.add(tree);
+			modCount++;
+		}
+		
+		@Override
+		public ParseTree get(int i) {
+			ParseTree tree = trees.get(i);
+			if (tree == null) {
+				tree = pending.get(i).toParseTree();
+				trees.set(i, tree);
+				pending.set(i, null);
+			}
+			return tree;
+		}
+		
+		@Override
+		public int size() { return trees.size(); }
+		
+		@Override
+		public ParseTree set(int i, ParseTree tree) {
+			ParseTree old = get(i);
+			trees.set(i, tree);
+			return old;
+		}
+		
+		@Override
+		public void add(int i, ParseTree tree) {
+			trees.add(i, tree);
+			pending.add(i, null);
+			modCount++;
+		}
+		
+		@Override
+		public ParseTree remove(int i) {
+			ParseTree old = get(i);
+			trees.remove(i);
+			pending.remove(i);
+			modCount++;
+			return old;
+		}
 	}
 	
 	/**
-	 * Make a sibling the rightmost child of the target.
-	 * @param target
-	 * @param sibling
+	 * Order of the results: fewer invalid nodes first, then fewer edits.
 	 */
-	private static void makeChild(Node target, Node sibling) {
-		List<Node> siblings = target.parent.children;
-		target.parent.children = new ArrayList<Node>();
-		for (Node anySibling : siblings) {
-			if (anySibling != sibling) {
-				target.parent.children.add(anySibling);
-			}
-		}
-		target.children.add(sibling);
-		sibling.parent = target;
-	}
+	private static final Comparator<SearchTree> BETTER_FIRST =
+			Comparator.comparingInt(SearchTree::getNumInvalidNodes).thenComparingInt(t -> t.edit);
 	
 	/**
-	 * <p>Return a list of adjusted trees after one adjustment to the input tree
-	 * at the target Node.</p>
+	 * <p>Add the roots of the trees after one adjustment at the target node,
+	 * found from the root by path[0..depth). The parent of the target is given,
+	 * depth is at least 1.</p>
 	 * <p>Four possible adjustments can be made to that node:</p>
 	 * <ol>
 	 *   <li>Swap this node with its child. (all possible positions)</li>
@@ -84,44 +139,71 @@ public class TreeAdjustor {
 	 *   <li>Make sibling its rightmost child.</li>
 	 *   <li>Swap leftmost child with other children</li>
 	 * </ol>
-	 * @param tree
-	 * @param targetNode
-	 * @return
+	 * <p>Swapping two nodes swaps their words, POS tags and infos. Only the nodes
+	 * from the root to the target's parent are copied.</p>
 	 */
-	private static Set<ParseTree> adjust(ParseTree tree, Node target) {
-		Set<ParseTree> adjusted = new HashSet<>();
-		if (target.parent == null) { return adjusted; }
+	private static void adjust(SearchNode root, int[] path, int depth,
+			SearchNode parent, SearchNode target, List<SearchNode> adjusted) {
+		int position = path[depth-1];
+		int N = target.getChildCount();
 		// (1) Swap target with its children.
-		for (Node child : target.getChildren()) {
-			ParseTree tempTree = new ParseTree(tree);
-			swap(find(tempTree, target), find(tempTree, child));
-			adjusted.add(tempTree);
+		for (int i = 0; i < N; i++) {
+			SearchNode child = target.getChild(i);
+			SearchNode swapped = target.withChild(i, child.withLabelOf(target)).withLabelOf(child);
+			adjusted.add(root.replace(path, depth, swapped));
 		}
 		// (2) Make child its rightmost sibling.
-		for (Node child : target.getChildren()) {
-			ParseTree tempTree = new ParseTree(tree);
-			makeSibling(find(tempTree, target), find(tempTree, child));
-			adjusted.add(tempTree);
+		for (int i = 0; i < N; i++) {
+			SearchNode newParent = parent.withChild(position, target.withChildRemoved(i))
+					.withChildAdded(target.getChild(i));
+			adjusted.add(root.replace(path, depth-1, newParent));
 		}
 		// (3) Make its sibling its rightmost child.
-		for (Node sibling : target.parent.getChildren()) {
-			if (sibling == target) { continue; }
-			ParseTree tempTree = new ParseTree(tree);
-			makeChild(find(tempTree, target), find(tempTree, sibling));
-			adjusted.add(tempTree);
+		for (int i = 0; i < parent.getChildCount(); i++) {
+			if (i == position) { continue; }
+			SearchNode newParent = parent.withChild(position, target.withChildAdded(parent.getChild(i)))
+					.withChildRemoved(i);
+			adjusted.add(root.replace(path, depth-1, newParent));
 		}
 		// (4) Swap leftmost child with other children.
-		if (target.getChildren().size() >= 2) {
-			List<Node> children = target.getChildren();
-			for (int i = 1; i < children.size(); i++) {
-				ParseTree tempTree = new ParseTree(tree);
-				swap(find(tempTree, children.get(0)),
-					 find(tempTree, children.get(i)));
-				adjusted.add(tempTree);
-			}
+		for (int i = 1; i < N; i++) {
+			SearchNode first = target.getChild(0), other = target.getChild(i);
+			SearchNode swapped = target.withChild(0, first.withLabelOf(other))
+					.withChild(i, other.withLabelOf(first));
+			adjusted.add(root.replace(path, depth, swapped));
 		}
+	}
+	
+	/**
+	 * Adjust at every node below curr, whose path from the root is path[0..depth).
+	 */
+	private static void adjustAll(SearchNode root, int[] path, int depth,
+			SearchNode curr, List<SearchNode> adjusted) {
+		for (int i = 0; i < curr.getChildCount(); i++) {
+			path[depth] = i;
+			SearchNode child = curr.getChild(i);
+			adjust(root, path, depth+1, curr, child, adjusted);
+			adjustAll(root, path, depth+1, child, adjusted);
+		}
+	}
+	
+	/**
+	 * Return the roots of all trees after one adjustment of the tree, in pre-order
+	 * of the adjusted nodes. The root node itself is not adjusted.
+	 */
+	private static List<SearchNode> adjust(SearchNode root) {
+		List<SearchNode> adjusted = new ArrayList<SearchNode>();
+		adjustAll(root, new int[height(root)], 0, root, adjusted);
 		return adjusted;
 	}
+	
+	private static int height(SearchNode node) {
+		int height = 0;
+		for (int i = 0; i < node.getChildCount(); i++) {
+			height = Math.max(height, height(node.getChild(i)) + 1);
+		}
+		return height;
+	}
 
 	/**
 	 * Return a set of adjusted trees after one adjustment to the input tree.
@@ -129,49 +211,184 @@ public class TreeAdjustor {
 	 * @return
 	 */
 	public static List<ParseTree> adjust(ParseTree tree) { 
-		Set<ParseTree> treeList = new HashSet<ParseTree>();
-		for (Node node : tree) {
-			treeList.addAll(adjust(tree, node));
+		Set<SearchTree> treeList = new HashSet<SearchTree>();
+		for (SearchNode root : adjust(SearchNode.of(tree.root))) {
+			treeList.add(new SearchTree(root, 0));
 		}
-		return new ArrayList<ParseTree>(treeList);
+		List<ParseTree> result = new ArrayList<ParseTree>();
+		for (SearchTree adjusted : treeList) {
+			result.add(adjusted.toParseTree());
+		}
+		return result;
 	}
 	
-
+	/**
+	 * <p>Return the tree, the tree with an ON added under ROOT, and all trees
+	 * reachable from them by at most MAX_EDIT adjustments that are at least as valid
+	 * as the tree they were adjusted from, each with its number of edits.</p>
+	 * <p>Trees are searched as {@link SearchNode}s, so that each adjustment copies
+	 * only a path of the tree. A result is copied back to a ParseTree only when
+	 * it is read from the returned list.</p>
+	 * @param tree
+	 * @return
+	 */
 	public static List<ParseTree> getAdjustedTrees(ParseTree tree) {
-		List<ParseTree> results = new ArrayList<ParseTree>();
-		// The top of the pq is the most valid tree (highest score, lowest number of invalid nodes)
-		PriorityQueue<ParseTree> queue = new PriorityQueue<ParseTree>((t1,t2) -> ( - t1.getScore() + t2.getScore() ));
-		HashMap<Integer, ParseTree> H = new HashMap<Integer, ParseTree>();
-		queue.add(tree);
-		results.add(tree);
-		H.put(tree.hashCode(), tree);
+		ResultList results = new ResultList();
 		tree.setEdit(0);
-		
+		results.add(tree);
 		ParseTree treeWithON = tree.addON();
-		queue.add(treeWithON);
-		results.add(treeWithON);
-		H.put(treeWithON.hashCode(), treeWithON);
 		treeWithON.setEdit(0);
+		results.add(treeWithON);
+		
+		// The top of the pq is the most valid tree (lowest number of invalid nodes)
+		PriorityQueue<SearchTree> queue = new PriorityQueue<SearchTree>((t1,t2) -> ( t1.getNumInvalidNodes() - t2.getNumInvalidNodes() ));
+		// visited trees, compared by fingerprint and structure so that no tree is lost to a collision
+		Set<SearchTree> visited = new HashSet<SearchTree>();
+		for (ParseTree start : results) {
+			SearchTree searchTree = new SearchTree(SearchNode.of(start.root), 0);
+			queue.add(searchTree);
+			visited.add(searchTree);
+		}
 		
 		while (queue.size() > 0){
-			ParseTree oriTree = queue.poll();
-			if (oriTree.getEdit() >= MAX_EDIT) { continue; }
-			List<ParseTree> treeList = TreeAdjustor.adjust(oriTree);
-			double numInvalidNodes = SyntacticEvaluator.numberOfInvalidNodes(oriTree);
+			SearchTree oriTree = queue.poll();
+			if (oriTree.edit >= MAX_EDIT) { continue; }
+			Set<SearchTree> treeList = new HashSet<SearchTree>();
+			for (SearchNode root : adjust(oriTree.root)) {
+				treeList.add(new SearchTree(root, oriTree.edit+1));
+			}
 			
-			for (int i = 0; i < treeList.size(); i++){
-				ParseTree currentTree = treeList.get(i);
-				int hashValue = currentTree.hashCode();
-				if ( !H.containsKey(hashValue) ) {
-					H.put(hashValue, currentTree);
-					currentTree.setEdit(oriTree.getEdit()+1);
-					if (SyntacticEvaluator.numberOfInvalidNodes(currentTree) <= numInvalidNodes) {
+			for (SearchTree currentTree : treeList){
+				if (visited.add(currentTree)) {
+					if (currentTree.getNumInvalidNodes() <= oriTree.getNumInvalidNodes()) {
 						queue.add(currentTree);
-						results.add(currentTree);
+						results.addSearchTree(currentTree);
+					}
+				}
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * <p>Return the best k trees of a beam search, ordered by fewer invalid nodes and
+	 * then fewer edits. The search starts from the same two trees as
+	 * {@link #getAdjustedTrees(ParseTree)} and keeps the same rule that an adjusted
+	 * tree must be at least as valid as the tree it was adjusted from.</p>
+	 * <p>Trees are expanded one number of edits at a time, keeping only the
+	 * beamWidth most valid trees of each level, so at most MAX_EDIT * beamWidth trees
+	 * are adjusted whatever the size of the tree. Trees found later have at least as
+	 * many edits as all trees found before, so once the k-th best tree has no invalid
+	 * node no later tree can beat it and the search stops.</p>
+	 * <p>The trees are copied to ParseTrees when they are read, see {@link ResultList}.</p>
+	 * @param tree
+	 * @param k number of trees returned, fewer if fewer trees are found
+	 * @param beamWidth number of trees expanded at each number of edits
+	 * @return
+	 * @throws IllegalArgumentException if k or beamWidth is not positive
+	 */
+	public static List<ParseTree> getAdjustedTrees(ParseTree tree, int k, int beamWidth) {
+		return getAdjustedTrees(tree, k, beamWidth, null);
+	}
+	
+	/**
+	 * <p>Same search as {@link #getAdjustedTrees(ParseTree, int, int)}, with the trees
+	 * of each level adjusted and evaluated in parallel in the pool.</p>
+	 * <p>Workers only read the visited trees of earlier levels. Their adjusted trees
+	 * are then merged in the order of the beam by the calling thread, so the result
+	 * is the same as the sequential search whatever the scheduling of the threads.</p>
+	 * @param tree
+	 * @param k number of trees returned, fewer if fewer trees are found
+	 * @param beamWidth number of trees expanded at each number of edits
+	 * @param pool null to search in the calling thread
+	 * @return
+	 * @throws IllegalArgumentException if k or beamWidth is not positive
+	 */
+	public static List<ParseTree> getAdjustedTrees(ParseTree tree, int k, int beamWidth, ForkJoinPool pool) {
+		if (k < 1) { throw new IllegalArgumentException("k must be positive"); }
+		if (beamWidth < 1) { throw new IllegalArgumentException("beamWidth must be positive"); }
+		// the k best trees so far, the worst of them on top
+		PriorityQueue<SearchTree> best = new PriorityQueue<SearchTree>(k, BETTER_FIRST.reversed());
+		Set<SearchTree> visited = new HashSet<SearchTree>();
+		List<SearchTree> beam = new ArrayList<SearchTree>();
+		tree.setEdit(0);
+		for (ParseTree start : new ParseTree[] {tree, tree.addON()}) {
+			SearchTree searchTree = new SearchTree(SearchNode.of(start.root), 0);
+			if (visited.add(searchTree)) {
+				beam.add(searchTree);
+				offer(best, k, searchTree);
+			}
+		}
+		
+		for (int edit = 1; edit <= MAX_EDIT && !beam.isEmpty(); edit++) {
+			if (best.size() == k && best.peek().getNumInvalidNodes() == 0) { break; }
+			List<List<SearchTree>> expanded = new ArrayList<List<SearchTree>>();
+			if (pool == null) {
+				for (SearchTree oriTree : beam) {
+					expanded.add(expand(oriTree, edit, visited));
+				}
+			}
+			else {
+				final int nextEdit = edit;
+				List<ForkJoinTask<List<SearchTree>>> tasks = new ArrayList<ForkJoinTask<List<SearchTree>>>();
+				for (SearchTree oriTree : beam) {
+					tasks.add(pool.submit(() -> expand(oriTree, nextEdit, visited)));
+				}
+				for (ForkJoinTask<List<SearchTree>> task : tasks) {
+					expanded.add(task.join());
+				}
+			}
+			
+			List<SearchTree> next = new ArrayList<SearchTree>();
+			for (int i = 0; i < beam.size(); i++) {
+				SearchTree oriTree = beam.get(i);
+				for (SearchTree currentTree : expanded.get(i)) {
+					if (visited.add(currentTree) && currentTree.getNumInvalidNodes() <= oriTree.getNumInvalidNodes()) {
+						next.add(currentTree);
+						offer(best, k, currentTree);
 					}
 				}
 			}
+			// stable, so ties keep the order they were found in
+			next.sort(Comparator.comparingInt(SearchTree::getNumInvalidNodes));
+			beam = next.size() > beamWidth ? next.subList(0, beamWidth) : next;
+		}
+		
+		List<SearchTree> sorted = new ArrayList<SearchTree>(best);
+		sorted.sort(BETTER_FIRST);
+		ResultList results = new ResultList();
+		for (SearchTree searchTree : sorted) {
+			results.addSearchTree(searchTree);
 		}
 		return results;
 	}
+	
+	/**
+	 * Return the trees after one adjustment of a tree of the beam that were not
+	 * visited before, with their numbers of invalid nodes counted. Visited is only read.
+	 */
+	private static List<SearchTree> expand(SearchTree oriTree, int edit, Set<SearchTree> visited) {
+		List<SearchTree> adjusted = new ArrayList<SearchTree>();
+		for (SearchNode root : adjust(oriTree.root)) {
+			SearchTree currentTree = new SearchTree(root, edit);
+			if (!visited.contains(currentTree)) {
+				currentTree.getNumInvalidNodes();
+				adjusted.add(currentTree);
+			}
+		}
+		return adjusted;
+	}
+	
+	/**
+	 * Add the tree to the best k trees if it is better than the worst of them.
+	 */
+	private static void offer(PriorityQueue<SearchTree> best, int k, SearchTree tree) {
+		if (best.size() < k) {
+			best.add(tree);
+		}
+		else if (BETTER_FIRST.compare(tree, best.peek()) < 0) {
+			best.poll();
+			best.add(tree);
+		}
+	}
 }
@@ -0,0 +1,157 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from character trigrams to the sampled values of
+ * {@link SchemaGraph}. It is used by {@link NodeMapper} to get a short list of
+ * candidate values for a word, so that only those candidates need to be scored
+ * with {@link WordSimilarity}.
+ * @author keping
+ *
+ */
+public class ValueIndex {
+	/**
+	 * Trigrams shared with the word, divided by number of trigrams of the word,
+	 * should be at least this to be a candidate.
+	 */
+	private static final double MIN_OVERLAP = 0.5;
+	/**
+	 * Maximum number of candidates returned for a word.
+	 */
+	private static final int MAX_CANDIDATES = 32;
+
+	/**
+	 * One sampled value in a column of a table.
+	 */
+	public static class Entry {
+		private final String table;
+		private final String column;
+		private final String value;
+		private int numOfGrams;
+
+		Entry(String table, String column, String value) {
+			this.table = table;
+			this.column = column;
+			this.value = value;
+		}
+		public String getTable() { return table; }
+		public String getColumn() { return column; }
+		public String getValue() { return value; }
+
+		@Override
+		public String toString() {
+			return table+"."+column+": "+value;
+		}
+	}
+
+	private List<Entry> entries;
+	/**
+	 * trigram, ids of entries containing the trigram
+	 */
+	private Map<String, int[]> postings;
+
+	/**
+	 * Build the index from sampled values.
+	 * @param tableRows table name, column name, column values
+	 */
+	public ValueIndex(Map<String, Map<String, Set<String>>> tableRows) {
+		entries = new ArrayList<>();
+		Map<String, List<Integer>> lists = new HashMap<>();
+		for (String tableName : tableRows.keySet()) {
+			Map<String, Set<String>> tableRow = tableRows.get(tableName);
+			for (String colName : tableRow.keySet()) {
+				for (String value : tableRow.get(colName)) {
+					if (value == null) { continue; }
+					Entry entry = new Entry(tableName, colName, value);
+					Set<String> grams = trigrams(value);
+					if (grams.isEmpty()) { continue; }
+					entry.numOfGrams = grams.size();
+					int id = entries.size();
+					entries.add(entry);
+					for (String gram : grams) {
+						List<Integer> list = lists.get(gram);
+						if (list == null) {
+							list = new ArrayList<>();
+							lists.put(gram, list);
+						}
+						list.add(id);
+					}
+				}
+			}
+		}
+		postings = new HashMap<>(lists.size() * 2);
+		for (Map.Entry<String, List<Integer>> e : lists.entrySet()) {
+			List<Integer> list = e.getValue();
+			int[] ids = new int[list.size()];
+			for (int i = 0; i < ids.length; i++) { ids[i] = list.get(i); }
+			postings.put(e.getKey(), ids);
+		}
+	}
+
+	/**
+	 * Character trigrams of the lower cased word, padded with '$' on both
+	 * sides so that short words still have trigrams.
+	 * @param word
+	 * @return set of trigrams
+	 */
+	static Set<String> trigrams(String word) {
+		Set<String> grams = new HashSet<>();
+		String s = word.toLowerCase().trim();
+		if (s.isEmpty()) { return grams; }
+		s = "$$" + s + "$$";
+		for (int i = 0; i + 3 <= s.length(); i++) {
+			grams.add(s.substring(i, i + 3));
+		}
+		return grams;
+	}
+
+	/**
+	 * Return the candidate values for the word, with most shared trigrams first.
+	 * The number of candidates is at most {@value #MAX_CANDIDATES}.
+	 * @param word
+	 * @return list of candidate entries, possibly empty
+	 */
+	public List<Entry> getCandidates(String word) {
+		Set<String> grams = trigrams(word);
+		if (grams.isEmpty()) { return Collections.emptyList(); }
+		Map<Integer, Integer> counts = new HashMap<>();
+		for (String gram : grams) {
+			int[] ids = postings.get(gram);
+			if (ids == null) { continue; }
+			for (int id : ids) {
+				Integer count = counts.get(id);
+				counts.put(id, count == null ? 1 : count + 1);
+			}
+		}
+		int minShared = (int) Math.ceil(MIN_OVERLAP * grams.size());
+		List<int[]> hits = new ArrayList<>(); // {id, shared}
+		for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
+			if (e.getValue() >= minShared) { hits.add(new int[] {e.getKey(), e.getValue()}); }
+		}
+		// more shared trigrams first, then shorter values (closer to the word)
+		Collections.sort(hits, (a, b) -> {
+			if (a[1] != b[1]) { return b[1] - a[1]; }
+			return entries.get(a[0]).numOfGrams - entries.get(b[0]).numOfGrams;
+		});
+		List<Entry> result = new ArrayList<>();
+		for (int i = 0; i < hits.size() && i < MAX_CANDIDATES; i++) {
+			result.add(entries.get(hits.get(i)[0]));
+		}
+		return result;
+	}
+
+	/**
+	 * Number of indexed values.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+}
@@ -0,0 +1,196 @@
+package model;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A strategy to draw a sample of the (non-null) values of a column for {@link SchemaGraph}.
+ * The queries are written for PostgreSQL.
+ * @author keping
+ *
+ */
+public interface ValueSampler {
+
+	/**
+	 * Return at most size distinct non-null values of the column.
+	 * @param c connection, used by one sampler at a time
+	 * @param table
+	 * @param column
+	 * @param size maximum number of rows in the sample
+	 * @param queryTimeout timeout of each query in seconds, 0 for no timeout
+	 * @return sampled values
+	 * @throws SQLException
+	 */
+	Set<String> sample(Connection c, String table, String column, int size, int queryTimeout) throws SQLException;
+
+	/**
+	 * Read the first column of all rows, skipping SQL NULL.
+	 */
+	static Set<String> readValues(ResultSet rows) throws SQLException {
+		Set<String> values = new HashSet<>();
+		while (rows.next()) {
+			String value = rows.getString(1);
+			if (!rows.wasNull()) { values.add(value); }
+		}
+		return values;
+	}
+
+	/**
+	 * Estimated number of rows of the table from the planner statistics,
+	 * or -1 if there is no estimate.
+	 */
+	static long estimateRows(Connection c, String table, int queryTimeout) throws SQLException {
+		try (PreparedStatement stmt = c.prepareStatement("SELECT reltuples FROM pg_class WHERE relname = ?")) {
+			stmt.setQueryTimeout(queryTimeout);
+			stmt.setString(1, table);
+			ResultSet rs = stmt.executeQuery();
+			if (rs.next()) {
+				long rows = (long) rs.getDouble(1);
+				return rows > 0 ? rows : -1;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * SELECT column FROM table ORDER BY RANDOM() LIMIT size. Uniform, but
+	 * reads and sorts the whole table.
+	 */
+	class OrderByRandom implements ValueSampler {
+		@Override
+		public Set<String> sample(Connection c, String table, String column, int size, int queryTimeout) throws SQLException {
+			String query = "SELECT " + column + " FROM " + table + " ORDER BY RANDOM() LIMIT " + size + ";";
+			try (Statement stmt = c.createStatement()) {
+				stmt.setQueryTimeout(queryTimeout);
+				return readValues(stmt.executeQuery(query));
+			}
+		}
+
+		@Override
+		public String toString() { return "ORDER BY RANDOM()"; }
+	}
+
+	/**
+	 * <p>PostgreSQL TABLESAMPLE (9.5 or later). The percentage is chosen from the
+	 * estimated number of rows so that about twice the sample size is read.</p>
+	 * <p>SYSTEM picks whole pages and is the cheapest, BERNOULLI picks single rows
+	 * but still reads every page.</p>
+	 */
+	class TableSample implements ValueSampler {
+		public enum Method { SYSTEM, BERNOULLI }
+		private final Method method;
+
+		public TableSample(Method method) {
+			this.method = method;
+		}
+
+		@Override
+		public Set<String> sample(Connection c, String table, String column, int size, int queryTimeout) throws SQLException {
+			long rows = estimateRows(c, table, queryTimeout);
+			double percent = rows <= 0 ? 100.0 : Math.min(100.0, 200.0 * size / rows);
+			String query = String.format(Locale.ROOT, "SELECT %s FROM %s TABLESAMPLE %s (%.6f) LIMIT %d;",
+					column, table, method, percent, size);
+			try (Statement stmt = c.createStatement()) {
+				stmt.setQueryTimeout(queryTimeout);
+				return readValues(stmt.executeQuery(query));
+			}
+		}
+
+		@Override
+		public String toString() { return "TABLESAMPLE "+method; }
+	}
+
+	/**
+	 * Most common values of the column from pg_stats, which are kept by ANALYZE
+	 * and cost no table access. If there are none (for example a unique column),
+	 * the fallback sampler is used.
+	 */
+	class MostCommonValues implements ValueSampler {
+		private final ValueSampler fallback;
+
+		public MostCommonValues(ValueSampler fallback) {
+			this.fallback = fallback;
+		}
+
+		@Override
+		public Set<String> sample(Connection c, String table, String column, int size, int queryTimeout) throws SQLException {
+			Set<String> values = new HashSet<>();
+			String query = "SELECT most_common_vals::text::text[] FROM pg_stats WHERE tablename = ? AND attname = ?";
+			try (PreparedStatement stmt = c.prepareStatement(query)) {
+				stmt.setQueryTimeout(queryTimeout);
+				stmt.setString(1, table);
+				stmt.setString(2, column);
+				ResultSet rs = stmt.executeQuery();
+				while (rs.next() && values.size() < size) {
+					Array array = rs.getArray(1);
+					if (array == null) { continue; }
+					for (Object value : (Object[]) array.getArray()) {
+						if (value != null && values.size() < size) { values.add(value.toString()); }
+					}
+				}
+			}
+			if (values.isEmpty()) { return fallback.sample(c, table, column, size, queryTimeout); }
+			return values;
+		}
+
+		@Override
+		public String toString() { return "pg_stats most_common_vals, else "+fallback; }
+	}
+
+	/**
+	 * Reservoir sampling while streaming the column through a server-side cursor,
+	 * so memory stays at the sample size. At most maxRows rows are read; if the
+	 * table is larger, the sample only covers the rows read first.
+	 */
+	class Reservoir implements ValueSampler {
+		private static final int FETCH_SIZE = 1000;
+		private final long maxRows;
+
+		public Reservoir(long maxRows) {
+			this.maxRows = maxRows;
+		}
+
+		@Override
+		public Set<String> sample(Connection c, String table, String column, int size, int queryTimeout) throws SQLException {
+			String query = "SELECT " + column + " FROM " + table + " WHERE " + column + " IS NOT NULL LIMIT " + maxRows;
+			List<String> reservoir = new ArrayList<>(size);
+			boolean autoCommit = c.getAutoCommit();
+			c.setAutoCommit(false); // PostgreSQL only uses a cursor inside a transaction
+			try (Statement stmt = c.createStatement()) {
+				stmt.setQueryTimeout(queryTimeout);
+				stmt.setFetchSize(FETCH_SIZE);
+				ResultSet rows = stmt.executeQuery(query);
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				long seen = 0;
+				while (rows.next()) {
+					String value = rows.getString(1);
+					if (rows.wasNull()) { continue; }
+					seen++;
+					if (reservoir.size() < size) {
+						reservoir.add(value);
+					} else {
+						long j = random.nextLong(seen);
+						if (j < size) { reservoir.set((int) j, value); }
+					}
+				}
+			} finally {
+				c.rollback(); // read only, nothing to commit
+				c.setAutoCommit(autoCommit);
+			}
+			return new HashSet<>(reservoir);
+		}
+
+		@Override
+		public String toString() { return "reservoir over "+maxRows+" rows"; }
+	}
+}
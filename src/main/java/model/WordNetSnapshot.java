@@ -0,0 +1,307 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import edu.mit.jwi.IDictionary;
+import edu.mit.jwi.item.IExceptionEntry;
+import edu.mit.jwi.item.IIndexWord;
+import edu.mit.jwi.item.IWordID;
+import edu.mit.jwi.item.POS;
+import edu.mit.jwi.morph.SimpleStemmer;
+
+/**
+ * <p>Binary snapshot of the part of WordNet needed by {@link WordNet#similarity(String, String)}:
+ * noun lemmas and their synsets, noun exception forms (for stemming) and the
+ * {@link HypernymTable}. It is written once from the dictionary and memory-mapped
+ * on later starts, so the dictionary does not have to be loaded.</p>
+ * <p>Layout (big-endian ints): magic, version, hypernym table, lemma table,
+ * lemma synsets, exception table, exception roots. A string table is the number
+ * of strings, their start positions and the UTF-16 chars of all strings sorted.</p>
+ * @author keping
+ *
+ */
+public class WordNetSnapshot {
+	private static final int MAGIC = 0x4E4C574E; // "NLWN"
+	private static final int VERSION = 1;
+
+	private final HypernymTable hypernyms;
+	/**
+	 * Sorted noun lemmas.
+	 */
+	private final StringTable lemmas;
+	/**
+	 * Synset numbers of lemma i are lemmaSynsets[lemmaSynsetStart[i]..lemmaSynsetStart[i+1]).
+	 */
+	private final IntBuffer lemmaSynsetStart;
+	private final IntBuffer lemmaSynsets;
+	/**
+	 * Sorted irregular noun forms, like "children".
+	 */
+	private final StringTable exceptions;
+	/**
+	 * Lemma numbers of the roots of exception i are
+	 * exceptionRoots[exceptionRootStart[i]..exceptionRootStart[i+1]).
+	 */
+	private final IntBuffer exceptionRootStart;
+	private final IntBuffer exceptionRoots;
+
+	private final SimpleStemmer stemmer = new SimpleStemmer();
+
+	/**
+	 * Read the snapshot from a buffer, usually a mapped file.
+	 * @param buf
+	 * @throws IOException if the buffer is not a snapshot of this version
+	 */
+	private WordNetSnapshot(ByteBuffer buf) throws IOException {
+		if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+			throw new IOException("Not a WordNet snapshot of version "+VERSION);
+		}
+		hypernyms = new HypernymTable(buf);
+		lemmas = new StringTable(buf);
+		lemmaSynsetStart = intView(buf, lemmas.size()+1);
+		lemmaSynsets = intView(buf, lemmaSynsetStart.get(lemmas.size()));
+		exceptions = new StringTable(buf);
+		exceptionRootStart = intView(buf, exceptions.size()+1);
+		exceptionRoots = intView(buf, exceptionRootStart.get(exceptions.size()));
+	}
+
+	/**
+	 * Memory-map a snapshot file.
+	 * @param file
+	 * @return the snapshot
+	 * @throws IOException if the file cannot be read or is not a snapshot
+	 */
+	public static WordNetSnapshot map(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			// the mapping stays valid after the channel is closed
+			return new WordNetSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Write a snapshot of the nouns of an opened dictionary to the file.
+	 * @param dict
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(IDictionary dict, File file) throws IOException {
+		HypernymTable hypernyms = HypernymTable.fromDictionary(dict);
+
+		// lemma, synset numbers
+		TreeMap<String, int[]> lemmaMap = new TreeMap<>();
+		Iterator<IIndexWord> indexWords = dict.getIndexWordIterator(POS.NOUN);
+		while (indexWords.hasNext()) {
+			IIndexWord indexWord = indexWords.next();
+			List<IWordID> wordIDs = indexWord.getWordIDs();
+			int[] ids = new int[wordIDs.size()];
+			int n = 0;
+			for (IWordID wID : wordIDs) {
+				int id = hypernyms.getId(wID.getSynsetID().getOffset());
+				if (id >= 0) { ids[n++] = id; }
+			}
+			ids = Arrays.copyOf(ids, n);
+			Arrays.sort(ids);
+			lemmaMap.put(indexWord.getLemma(), ids);
+		}
+		List<String> lemmaList = new ArrayList<>(lemmaMap.keySet());
+
+		// exception form, lemma numbers of roots
+		TreeMap<String, int[]> exceptionMap = new TreeMap<>();
+		Iterator<IExceptionEntry> entries = dict.getExceptionEntryIterator(POS.NOUN);
+		while (entries.hasNext()) {
+			IExceptionEntry entry = entries.next();
+			List<String> roots = entry.getRootForms();
+			int[] rootIds = new int[roots.size()];
+			int n = 0;
+			for (String root : roots) {
+				int id = Collections.binarySearch(lemmaList, root);
+				if (id >= 0) { rootIds[n++] = id; }
+			}
+			exceptionMap.put(entry.getSurfaceForm(), Arrays.copyOf(rootIds, n));
+		}
+
+		File tmp = new File(file.getPath()+".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			hypernyms.writeTo(out);
+			writeGroups(out, lemmaMap);
+			writeGroups(out, exceptionMap);
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot replace "+file);
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Cannot rename "+tmp+" to "+file);
+		}
+	}
+
+	/**
+	 * Write the sorted keys as a string table, then the values as
+	 * start positions followed by all values.
+	 */
+	private static void writeGroups(DataOutputStream out, TreeMap<String, int[]> map) throws IOException {
+		StringTable.write(out, map.keySet());
+		int start = 0;
+		out.writeInt(start);
+		for (int[] ids : map.values()) {
+			start += ids.length;
+			out.writeInt(start);
+		}
+		for (int[] ids : map.values()) {
+			for (int id : ids) { out.writeInt(id); }
+		}
+	}
+
+	public HypernymTable getHypernyms() { return hypernyms; }
+
+	/**
+	 * <p>Return the noun stems of the word that are lemmas in WordNet. This
+	 * follows {@link edu.mit.jwi.morph.WordnetStemmer}: the roots of an irregular
+	 * form, the word itself, and the results of {@link SimpleStemmer}.</p>
+	 * @param word
+	 * @return sorted stems, possibly empty
+	 */
+	public List<String> findStems(String word) {
+		String normalized = word.trim().toLowerCase().replaceAll("\\s+", "_");
+		SortedSet<String> result = new TreeSet<>();
+		int exception = exceptions.indexOf(normalized);
+		if (exception >= 0) {
+			for (int i = exceptionRootStart.get(exception); i < exceptionRootStart.get(exception+1); i++) {
+				result.add(lemmas.get(exceptionRoots.get(i)));
+			}
+		}
+		if (lemmas.indexOf(normalized) >= 0) { result.add(normalized); }
+		for (String stem : stemmer.findStems(normalized, POS.NOUN)) {
+			if (lemmas.indexOf(stem) >= 0) { result.add(stem); }
+		}
+		return new ArrayList<>(result);
+	}
+
+	/**
+	 * Return the sorted synset numbers (in {@link #getHypernyms()}) of a noun lemma.
+	 * @param lemma
+	 * @return synset numbers, empty if it is not a noun lemma
+	 */
+	public int[] getSynsets(String lemma) {
+		int i = lemmas.indexOf(lemma);
+		if (i < 0) { return new int[0]; }
+		int start = lemmaSynsetStart.get(i);
+		int[] ids = new int[lemmaSynsetStart.get(i+1) - start];
+		for (int j = 0; j < ids.length; j++) { ids[j] = lemmaSynsets.get(start+j); }
+		return ids;
+	}
+
+	/**
+	 * Return a view of the next count ints in the buffer, and move the
+	 * position of the buffer past them.
+	 */
+	static IntBuffer intView(ByteBuffer buf, int count) {
+		IntBuffer view = buf.asIntBuffer();
+		view.limit(count);
+		buf.position(buf.position() + 4*count);
+		return view.slice();
+	}
+
+	static void writeInts(DataOutputStream out, IntBuffer ints) throws IOException {
+		for (int i = 0; i < ints.limit(); i++) { out.writeInt(ints.get(i)); }
+	}
+
+	/**
+	 * Sorted strings stored as start positions and chars, searched in place.
+	 */
+	private static class StringTable {
+		private final IntBuffer start;
+		private final CharBuffer chars;
+
+		StringTable(ByteBuffer buf) {
+			int N = buf.getInt();
+			start = intView(buf, N+1);
+			int C = start.get(N);
+			CharBuffer view = buf.asCharBuffer();
+			view.limit(C);
+			buf.position(buf.position() + 2*C);
+			chars = view.slice();
+		}
+
+		static void write(DataOutputStream out, Iterable<String> sorted) throws IOException {
+			List<String> strings = new ArrayList<>();
+			for (String s : sorted) { strings.add(s); }
+			out.writeInt(strings.size());
+			int pos = 0;
+			out.writeInt(pos);
+			for (String s : strings) {
+				pos += s.length();
+				out.writeInt(pos);
+			}
+			for (String s : strings) { out.writeChars(s); }
+		}
+
+		int size() { return start.limit() - 1; }
+
+		String get(int i) {
+			int from = start.get(i), to = start.get(i+1);
+			char[] cs = new char[to - from];
+			for (int j = 0; j < cs.length; j++) { cs[j] = chars.get(from+j); }
+			return new String(cs);
+		}
+
+		/**
+		 * Binary search, in the order of {@link String#compareTo(String)}.
+		 * @return position of the string, or -1 if it is not in the table
+		 */
+		int indexOf(String s) {
+			int lo = 0, hi = size() - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				int cmp = compare(mid, s);
+				if (cmp < 0) { lo = mid + 1; }
+				else if (cmp > 0) { hi = mid - 1; }
+				else { return mid; }
+			}
+			return -1;
+		}
+
+		private int compare(int i, String s) {
+			int from = start.get(i), len = start.get(i+1) - from;
+			int n = Math.min(len, s.length());
+			for (int j = 0; j < n; j++) {
+				char c = chars.get(from+j);
+				if (c != s.charAt(j)) { return c - s.charAt(j); }
+			}
+			return len - s.length();
+		}
+	}
+
+	/**
+	 * Number of noun lemmas in the snapshot.
+	 */
+	public int size() {
+		return lemmas.size();
+	}
+
+	@Override
+	public String toString() {
+		return lemmas.size()+" noun lemmas, "+hypernyms.size()+" noun synsets, "
+				+exceptions.size()+" exception forms";
+	}
+}
@@ -15,6 +15,7 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
+import model.NLParser;
 import model.NodeInfo;
 
 public class UserView extends Application {
@@ -150,6 +151,7 @@ public class UserView extends Application {
 	}
 	
 	public static void main(String[] args) {
+		NLParser.preload(); // load the parser while the window starts
 		try {
 		Application.launch(args);
 		} catch (Exception e) { e.printStackTrace(); }